@@ -0,0 +1,90 @@
+package com.phone.booking.benchmarks;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.japi.function.Function;
+import com.phone.booking.messages.Commands;
+import com.phone.booking.messages.Messages;
+import com.phone.booking.service.BookingService;
+import com.phone.booking.store.PhoneInventoryView;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ask round trips to a single {@link BookingService}, the path every write and every uncached read takes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+public class BookingServiceBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Param({"100", "10000"})
+    public int inventorySize;
+
+    private ActorTestKit testKit;
+    private ActorRef<Commands.Command> bookingService;
+    private List<String> models;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        testKit = ActorTestKit.create();
+        models = Inventory.models(inventorySize);
+        PhoneInventoryView view = new PhoneInventoryView(1);
+        bookingService = testKit.spawn(BookingService.create(models, view, 0));
+        // the first snapshot is published once the startup enrichment is done
+        while (view.snapshots() == null)
+            Thread.sleep(10);
+    }
+
+    @TearDown
+    public void tearDown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Benchmark
+    public Messages.BookingResponse<?> getPhoneDetails(ModelCursor cursor) throws Exception {
+        String model = cursor.nextModel(models);
+        return ask(ref -> new Commands.GetPhoneDetails(model, ref));
+    }
+
+    @Benchmark
+    public Messages.BookingResponse<?> getAllPhones() throws Exception {
+        return ask(Commands.GetAllPhones::new);
+    }
+
+    @Benchmark
+    public Messages.BookingResponse<?> bookAndReturn(ModelCursor cursor) throws Exception {
+        String model = cursor.nextModel(models);
+        ask(ref -> new Commands.BookPhone(model, "John Doe", ref));
+        return ask(ref -> new Commands.ReturnPhone(model, ref));
+    }
+
+    // read heavy mix: eight detail reads for every booking and return
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public Messages.BookingResponse<?> mixed(ModelCursor cursor) throws Exception {
+        String model = cursor.nextModel(models);
+        ask(ref -> new Commands.BookPhone(model, "John Doe", ref));
+        for (int i = 0; i < 8; i++) {
+            String read = cursor.nextModel(models);
+            ask(ref -> new Commands.GetPhoneDetails(read, ref));
+        }
+        return ask(ref -> new Commands.ReturnPhone(model, ref));
+    }
+
+    private Messages.BookingResponse<?> ask(Function<ActorRef<Messages.BookingResponse<?>>, Commands.Command> command)
+            throws Exception {
+        return AskPattern.ask(bookingService, command, TIMEOUT, testKit.scheduler())
+                .toCompletableFuture()
+                .get();
+    }
+}
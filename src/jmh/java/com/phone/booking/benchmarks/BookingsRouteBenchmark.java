@@ -0,0 +1,94 @@
+package com.phone.booking.benchmarks;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.japi.function.Function;
+import akka.stream.Materializer;
+import akka.util.ByteString;
+import com.phone.booking.messages.Commands;
+import com.phone.booking.routes.BookingsRoute;
+import com.phone.booking.service.BookingService;
+import com.phone.booking.store.PhoneInventoryView;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests through the sealed {@link BookingsRoute}, from unmarshalling to the strict response body,
+ * without a socket in between.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+public class BookingsRouteBenchmark {
+
+    @Param({"100", "10000"})
+    public int inventorySize;
+
+    private ActorTestKit testKit;
+    private Materializer materializer;
+    private Function<HttpRequest, CompletionStage<HttpResponse>> handler;
+    private List<String> models;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        testKit = ActorTestKit.create();
+        materializer = Materializer.matFromSystem(testKit.system());
+        models = Inventory.models(inventorySize);
+        PhoneInventoryView view = new PhoneInventoryView(1);
+        ActorRef<Commands.Command> bookingService = testKit.spawn(BookingService.create(models, view, 0));
+        handler = new BookingsRoute(testKit.system(), bookingService, view).routes().seal().handler(testKit.system());
+        while (view.snapshots() == null)
+            Thread.sleep(10);
+    }
+
+    @TearDown
+    public void tearDown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Benchmark
+    public ByteString getAllPhones() throws Exception {
+        return run(HttpRequest.GET("/phones"));
+    }
+
+    @Benchmark
+    public ByteString getPhone(ModelCursor cursor) throws Exception {
+        return run(HttpRequest.GET("/phones/" + encode(cursor.nextModel(models))));
+    }
+
+    @Benchmark
+    public ByteString queryAvailable() throws Exception {
+        return run(HttpRequest.GET("/phones?available=true&limit=20"));
+    }
+
+    @Benchmark
+    public ByteString bookAndReturn(ModelCursor cursor) throws Exception {
+        String model = cursor.nextModel(models);
+        run(HttpRequest.PUT("/phones/book").withEntity(ContentTypes.APPLICATION_JSON,
+                "{\"bookedBy\":\"John Doe\",\"modelName\":\"" + model + "\"}"));
+        return run(HttpRequest.PUT("/phones/return/" + encode(model)));
+    }
+
+    private ByteString run(HttpRequest request) throws Exception {
+        return handler.apply(request)
+                .thenCompose(response -> response.entity().toStrict(5_000, materializer))
+                .toCompletableFuture()
+                .get()
+                .getData();
+    }
+
+    private static String encode(String model) {
+        return URLEncoder.encode(model, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
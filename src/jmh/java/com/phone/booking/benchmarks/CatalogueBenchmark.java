@@ -0,0 +1,71 @@
+package com.phone.booking.benchmarks;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phone.booking.service.FetchPhoneExternalDetailsService.PhoneDetails;
+import com.phone.booking.service.PhoneDetailsCatalogue;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the local fono catalogue, as done by the details actor when the api is not available.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CatalogueBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int catalogueSize;
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private Path file;
+    private String lastModel;
+    private PhoneDetailsCatalogue loaded;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("catalogue", ".json");
+        List<String> models = Inventory.models(catalogueSize);
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            writer.write('[');
+            for (int i = 0; i < models.size(); i++) {
+                if (i > 0)
+                    writer.write(',');
+                writer.write(mapper.writeValueAsString(new PhoneDetails(models.get(i), "GSM / HSPA / LTE",
+                        "GSM 850 / 900 / 1800 / 1900", "HSDPA 850 / 900 / 1900 / 2100", "LTE band 1(2100), 3(1800)")));
+            }
+            writer.write(']');
+        }
+        lastModel = models.get(models.size() - 1);
+        loaded = new PhoneDetailsCatalogue(file, mapper, Duration.ofHours(1));
+        loaded.find(lastModel);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    // first lookup parses and indexes the whole file
+    @Benchmark
+    public Optional<PhoneDetails> loadAndFind() throws IOException {
+        return new PhoneDetailsCatalogue(file, mapper, Duration.ofHours(1)).find(lastModel);
+    }
+
+    @Benchmark
+    public Optional<PhoneDetails> findIndexed() throws IOException {
+        return loaded.find(lastModel);
+    }
+}
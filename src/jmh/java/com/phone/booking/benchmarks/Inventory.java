@@ -0,0 +1,40 @@
+package com.phone.booking.benchmarks;
+
+import com.phone.booking.models.Phone;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generated inventories for the benchmarks, so every dataset size has the same shape.
+ */
+final class Inventory {
+
+    private Inventory() { }
+
+    static List<String> models(int size) {
+        List<String> models = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            models.add("Benchmark Phone " + i);
+        return models;
+    }
+
+    // every other phone is booked and all carry fono details, like a warmed up store
+    static List<Phone> phones(int size) {
+        List<Phone> phones = new ArrayList<>(size);
+        for (String model : models(size)) {
+            boolean booked = phones.size() % 2 == 1;
+            phones.add(Phone.builder()
+                    .modelName(model)
+                    .available(!booked)
+                    .bookedBy(booked ? "John Doe" : null)
+                    .bookingDate(booked ? "2023-06-01T10:15:30" : null)
+                    .technology("GSM / HSPA / LTE")
+                    ._2g_bands("GSM 850 / 900 / 1800 / 1900")
+                    ._3g_bands("HSDPA 850 / 900 / 1700(AWS) / 1900 / 2100")
+                    ._4g_bands("LTE band 1(2100), 2(1900), 3(1800), 4(1700/2100), 5(850)")
+                    .build());
+        }
+        return phones;
+    }
+}
@@ -0,0 +1,50 @@
+package com.phone.booking.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.phone.booking.messages.Messages;
+import com.phone.booking.models.Phone;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.phone.booking.Status.success;
+
+/**
+ * Jackson rendering of the GET /phones body at different inventory sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MarshallingBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int inventorySize;
+
+    private Messages.BookingResponse<List<Phone>> response;
+    // the default mapper of Jackson.marshaller() and the sorted one of the cached read bodies
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectMapper sortedMapper = JsonMapper.builder()
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .build();
+
+    @Setup
+    public void setup() {
+        response = new Messages.BookingResponse<>(success, Inventory.phones(inventorySize));
+    }
+
+    @Benchmark
+    public byte[] marshal() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public byte[] marshalSorted() throws JsonProcessingException {
+        return sortedMapper.writeValueAsBytes(response);
+    }
+}
@@ -0,0 +1,20 @@
+package com.phone.booking.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Walks the models of an {@link Inventory} round robin, one cursor per benchmark thread.
+ */
+@State(Scope.Thread)
+public class ModelCursor {
+
+    private int next;
+
+    String nextModel(List<String> models) {
+        next = (next + 1) % models.size();
+        return models.get(next);
+    }
+}
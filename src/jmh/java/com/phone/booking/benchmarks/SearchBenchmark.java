@@ -0,0 +1,54 @@
+package com.phone.booking.benchmarks;
+
+import com.phone.booking.models.Phone;
+import com.phone.booking.store.PhoneSearchIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Model name search of GET /phones/search, a short query answered by the word prefixes and longer ones
+ * by the trigrams.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SearchBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int catalogueSize;
+
+    private List<Phone> phones;
+    private PhoneSearchIndex index;
+    private String rareQuery;
+
+    @Setup
+    public void setup() {
+        phones = Inventory.phones(catalogueSize);
+        index = PhoneSearchIndex.of(phones);
+        rareQuery = "phone " + (catalogueSize - 1);
+    }
+
+    @Benchmark
+    public List<String> prefix() {
+        return index.search("be", 20);
+    }
+
+    @Benchmark
+    public List<String> rareSubstring() {
+        return index.search(rareQuery, 20);
+    }
+
+    @Benchmark
+    public List<String> technology() {
+        return index.search("LTE", 20);
+    }
+
+    @Benchmark
+    public PhoneSearchIndex build() {
+        return PhoneSearchIndex.of(phones);
+    }
+}
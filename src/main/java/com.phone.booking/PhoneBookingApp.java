@@ -4,22 +4,33 @@ import akka.NotUsed;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.MailboxSelector;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.http.javadsl.Http;
 import akka.http.javadsl.ServerBinding;
 import akka.http.javadsl.server.Route;
+import com.phone.booking.cluster.BookingCluster;
 import com.phone.booking.messages.Commands;
 import com.phone.booking.routes.BookingsRoute;
+import com.phone.booking.routes.MetricsRoute;
+import com.phone.booking.routes.ReadinessRoute;
 import com.phone.booking.service.BookingService;
+import com.phone.booking.service.BookingShardRouter;
+import com.phone.booking.store.PhoneChangeFeed;
+import com.phone.booking.store.PhoneInventoryView;
+import com.typesafe.config.Config;
 
 import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 public class PhoneBookingApp {
     // #start-http-server
-    static void startHttpServer(Route route, ActorSystem<?> system) {
+    static CompletionStage<ServerBinding> startHttpServer(Route route, ActorSystem<?> system) {
+        Config http = system.settings().config().getConfig("my-app.http");
         CompletionStage<ServerBinding> futureBinding =
-                Http.get(system).newServerAt("localhost", 8080).bind(route);
+                Http.get(system).newServerAt(http.getString("host"), http.getInt("port")).bind(route);
 
         futureBinding.whenComplete((binding, exception) -> {
             if (binding != null) {
@@ -32,24 +43,74 @@ public class PhoneBookingApp {
                 system.terminate();
             }
         });
+        return futureBinding;
     }
     // #start-http-server
 
-    public static void main(String[] args) {
-        //#server-bootstrapping
-        Behavior<NotUsed> rootBehavior = Behaviors.setup(context -> {
-            ActorRef<Commands.Command> bookingServiceActor =
-                    context.spawn(BookingService.create(context.getSystem().settings()
-                                    .config().getStringList("my-app.phones")), "BookingService");
+    // Every shard enriches parallel-batches batches at once, each offering up to client.parallelism lookups to
+    // the shared fono api client; a lookup beyond its queue would fail and leave the phone without details
+    static void validateEnrichment(Config config, int shards) {
+        if (!config.getBoolean("my-app.fonoapi.available"))
+            return;
+        long lookups = (long) shards * config.getInt("my-app.fonoapi.enrichment.parallel-batches")
+                * config.getInt("my-app.fonoapi.client.parallelism");
+        int queueSize = config.getInt("my-app.fonoapi.client.queue-size");
+        if (lookups > queueSize)
+            throw new IllegalArgumentException("my-app.fonoapi.client.queue-size " + queueSize
+                    + " is below the " + lookups + " lookups the startup enrichment of " + shards + " shards may offer");
+    }
+
+    /**
+     * Spawns the booking actors and serves their routes, the binding completes once the server is bound.
+     */
+    public static Behavior<NotUsed> rootBehavior(CompletableFuture<ServerBinding> binding) {
+        return Behaviors.setup(context -> {
+            Config config = context.getSystem().settings().config();
+            List<String> phones = config.getStringList("my-app.phones");
+            int shards = config.getInt("my-app.booking.shards");
+            boolean cluster = config.getBoolean("my-app.cluster.enabled");
+            // every node of a cluster must partition the phones alike, whatever its number of processors
+            if (cluster && shards < 1)
+                throw new IllegalArgumentException(
+                        "my-app.booking.shards must be set to the same positive number on every node of a cluster");
+            if (shards == 0)
+                shards = Runtime.getRuntime().availableProcessors();
+            validateEnrichment(config, shards);
 
-            BookingsRoute bookingsRoute = new BookingsRoute(context.getSystem(), bookingServiceActor);
-            startHttpServer(bookingsRoute.routes(), context.getSystem());
+            Config feed = config.getConfig("my-app.feed");
+            PhoneChangeFeed changes = new PhoneChangeFeed(context.getSystem(), feed.getInt("hub-buffer"),
+                    feed.getInt("retained-changes"), feed.getDuration("gap-check"));
+            PhoneInventoryView view = new PhoneInventoryView(Math.max(shards, 1), changes);
+            MailboxSelector mailbox = MailboxSelector.bounded(config.getInt("my-app.booking.mailbox-capacity"));
+            Behavior<Commands.Command> bookingService;
+            if (cluster)
+                bookingService = BookingCluster.create(phones, shards, view);
+            else if (shards > 1)
+                bookingService = BookingShardRouter.create(phones, shards, view);
+            else
+                bookingService = BookingService.create(phones, view, 0);
+            ActorRef<Commands.Command> bookingServiceActor = context.spawn(bookingService, "BookingService", mailbox);
+
+            BookingsRoute bookingsRoute = new BookingsRoute(context.getSystem(), bookingServiceActor, view);
+            MetricsRoute metricsRoute = new MetricsRoute(context.getSystem());
+            ReadinessRoute readinessRoute = new ReadinessRoute(view);
+            Route routes = bookingsRoute.routes().orElse(metricsRoute.routes()).orElse(readinessRoute.routes());
+            startHttpServer(routes, context.getSystem())
+                    .whenComplete((bound, exception) -> {
+                        if (exception != null)
+                            binding.completeExceptionally(exception);
+                        else
+                            binding.complete(bound);
+                    });
 
             return Behaviors.empty();
         });
+    }
 
+    public static void main(String[] args) {
+        //#server-bootstrapping
         // boot up server using the route as defined below
-        ActorSystem.create(rootBehavior, "phone-booking");
+        ActorSystem.create(rootBehavior(new CompletableFuture<>()), "phone-booking");
         //#server-bootstrapping
     }
 }
@@ -1,5 +1,7 @@
 package com.phone.booking;
 
 public enum Status {
-    success, error, notFound, unavailable, badRequest,
+    success, error, notFound, unavailable, badRequest, overloaded,
+    // an Idempotency-Key reused for a different request
+    conflict,
 }
@@ -0,0 +1,45 @@
+package com.phone.booking.cluster;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+import com.phone.booking.messages.Commands;
+import com.phone.booking.service.BookingShardRouter;
+import com.phone.booking.store.PhoneInventoryView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Booking service of one node of a cluster. The phones are partitioned as by {@link BookingShardRouter},
+ * each partition is owned by a {@link PartitionEntity} that cluster sharding runs on one of the nodes,
+ * and every node keeps a {@link PartitionReplica} of each partition to serve reads locally.
+ * Every node must be configured with the same phones and number of partitions.
+ */
+public class BookingCluster {
+
+    private BookingCluster() {
+    }
+
+    /**
+     * @param view read side of this node, must have one partition per partition of the cluster
+     */
+    public static Behavior<Commands.Command> create(List<String> phones, int partitions, PhoneInventoryView view) {
+        Objects.requireNonNull(phones);
+        if (partitions < 1)
+            throw new IllegalArgumentException("partitions must be positive: " + partitions);
+        if (view != null && view.partitionCount() != partitions)
+            throw new IllegalArgumentException("view must have one partition per partition of the cluster");
+        return Behaviors.setup(ctx -> {
+            ClusterSharding.get(ctx.getSystem()).init(Entity.of(PartitionEntity.TYPE_KEY,
+                    entity -> PartitionEntity.create(Integer.parseInt(entity.getEntityId()), phones, partitions)));
+            List<ActorRef<Commands.Command>> replicas = new ArrayList<>(partitions);
+            for (int i = 0; i < partitions; i++)
+                replicas.add(ctx.spawn(PartitionReplica.create(i, view), "replica-" + i));
+            return BookingShardRouter.createOver(replicas);
+        });
+    }
+}
@@ -0,0 +1,8 @@
+package com.phone.booking.cluster;
+
+/**
+ * Marker of the messages sent between the nodes of a cluster, bound to the jackson-cbor serializer
+ * in akka.actor.serialization-bindings.
+ */
+public interface ClusterSerializable {
+}
@@ -0,0 +1,258 @@
+package com.phone.booking.cluster;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.MailboxSelector;
+import akka.actor.typed.Scheduler;
+import akka.actor.typed.Terminated;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.cluster.ddata.LWWMap;
+import akka.cluster.ddata.SelfUniqueAddress;
+import akka.cluster.ddata.typed.javadsl.DistributedData;
+import akka.cluster.ddata.typed.javadsl.Replicator;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.phone.booking.Status;
+import com.phone.booking.messages.Commands;
+import com.phone.booking.messages.Messages;
+import com.phone.booking.models.Phone;
+import com.phone.booking.metrics.Metrics;
+import com.phone.booking.service.BookingService;
+import com.phone.booking.store.IdempotencyCache;
+import com.phone.booking.store.PhoneInventoryView;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.phone.booking.Status.error;
+
+/**
+ * Owner of one partition of the phones in a cluster: a sharded entity, so the cluster runs exactly one
+ * per partition and all writes to a model go through a single {@link BookingService}.
+ * Every phone the service publishes is written to the replicated inventory read by {@link PartitionReplica}.
+ * The reply to a write carries the phones it changed, so the replica it came through can apply them at once.
+ * Writes sent with an Idempotency-Key are deduplicated here, whichever node they came in on; the keys are kept in
+ * memory, so a retry is only recognized while the partition stays on the same node.
+ */
+public class PartitionEntity extends AbstractBehavior<PartitionEntity.Command> {
+
+    public static final EntityTypeKey<Command> TYPE_KEY = EntityTypeKey.create(Command.class, "BookingPartition");
+
+    public interface Command extends ClusterSerializable { }
+
+    // sent by the replicas to start the entity, and to start it again after it has moved to another node
+    public enum Start implements Command { INSTANCE }
+
+    // holdSeconds is null for a booking that lasts until the phone is returned, idempotencyKey null unless one was sent
+    public record Book(String modelName, String bookedBy, Long holdSeconds, String idempotencyKey,
+                       ActorRef<Reply> replyTo) implements Command { }
+
+    public record Return(String modelName, String idempotencyKey, ActorRef<Reply> replyTo) implements Command { }
+
+    public record ExtendHold(String modelName, String bookedBy, long holdSeconds, String idempotencyKey,
+                             ActorRef<Reply> replyTo) implements Command { }
+
+    public record Batch(List<Messages.BatchOperation> operations, boolean atomic, String idempotencyKey,
+                        ActorRef<Reply> replyTo) implements Command { }
+
+    public record UserPhones(String bookedBy, ActorRef<Reply> replyTo) implements Command { }
+
+    public record UserHistory(String bookedBy, long fromMillis, long toMillis, ActorRef<Reply> replyTo) implements Command { }
+
+    // local to the entity: the phones its service publishes, and the answers of the service to writes
+    private record Published(List<Phone> phones) implements Command { }
+
+    // keyed is the response reserved for the Idempotency-Key of the write, null without a key
+    private record Written(List<String> models, Messages.BookingResponse<?> response, Throwable failure,
+                           ActorRef<Reply> replyTo, String key, CompletableFuture<Reply> keyed) implements Command { }
+
+    /**
+     * A {@link Messages.BookingResponse} with its data in a typed field, so it can be serialized between nodes.
+     * changed holds the phones of the models a successful write involved, as they were once it was applied.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Reply(Status status, String message, List<Messages.BatchItemResult> results, List<Phone> phones,
+                        List<Messages.HistoryEntry> history, List<Phone> changed) implements ClusterSerializable {
+
+        @SuppressWarnings("unchecked")
+        public static Reply of(Messages.BookingResponse<?> response) {
+            if (response.data() instanceof String message)
+                return new Reply(response.status(), message, null, null, null, null);
+            List<?> data = (List<?>) response.data();
+            if (!data.isEmpty() && data.get(0) instanceof Messages.BatchItemResult)
+                return new Reply(response.status(), null, (List<Messages.BatchItemResult>) data, null, null, null);
+            if (!data.isEmpty() && data.get(0) instanceof Messages.HistoryEntry)
+                return new Reply(response.status(), null, null, null, (List<Messages.HistoryEntry>) data, null);
+            return new Reply(response.status(), null, null, (List<Phone>) data, null, null);
+        }
+
+        public Reply withChanged(List<Phone> changed) {
+            return new Reply(status, message, results, phones, history, changed);
+        }
+
+        public Messages.BookingResponse<?> toResponse() {
+            Object data = message != null ? message : results != null ? results : history != null ? history : phones;
+            return new Messages.BookingResponse<>(status, data);
+        }
+    }
+
+    private final ActorRef<Commands.Command> service;
+    private final ActorRef<List<Phone>> writer;
+    private final Duration askTimeout;
+    private final Scheduler scheduler;
+    // last published state of every phone of the partition
+    private final Map<String, Phone> latest = new HashMap<>();
+    private final IdempotencyCache<Reply> idempotency;
+    private final LongAdder idempotentReplays;
+
+    public static Behavior<Command> create(int partition, List<String> phones, int partitionCount) {
+        Objects.requireNonNull(phones);
+        return Behaviors.setup(ctx -> {
+            ctx.setLoggerName(PartitionEntity.class.getName());
+            ctx.getLog().info("Starting partition {} of {}", partition, partitionCount);
+            List<String> owned = phones.stream()
+                    .map(String::trim)
+                    .filter(model -> PhoneInventoryView.partitionOf(model, partitionCount) == partition)
+                    .toList();
+            ActorRef<List<Phone>> writer = ctx.spawn(replicaWriter(partition), "replica-writer");
+            // the service publishes a change before it replies, so a write is answered after its phones are known
+            @SuppressWarnings("unchecked")
+            ActorRef<List<Phone>> published = ctx.messageAdapter((Class<List<Phone>>) (Class<?>) List.class, Published::new);
+            MailboxSelector mailbox = MailboxSelector.bounded(
+                    ctx.getSystem().settings().config().getInt("my-app.booking.mailbox-capacity"));
+            // named after the partition, so the journal files follow the partition from node to node
+            ActorRef<Commands.Command> service = ctx.spawn(BookingService.create(owned, null, partition, published),
+                    "partition-" + partition, mailbox);
+            ctx.watch(service);
+            return new PartitionEntity(ctx, service, writer);
+        });
+    }
+
+    // Only the owner writes the phones of its partition, so a local write cannot conflict with another node.
+    // The replicator gossips it to the other nodes.
+    private static Behavior<List<Phone>> replicaWriter(int partition) {
+        return Behaviors.setup(ctx -> {
+            DistributedData distributedData = DistributedData.get(ctx.getSystem());
+            ActorRef<Replicator.Command> replicator = distributedData.replicator();
+            SelfUniqueAddress node = distributedData.selfUniqueAddress();
+            return Behaviors.receiveMessage(phones -> {
+                replicator.tell(new Replicator.Update<>(PartitionReplica.key(partition), LWWMap.create(),
+                        Replicator.writeLocal(), ctx.getSystem().ignoreRef(), map -> {
+                            LWWMap<String, Phone> updated = map;
+                            for (Phone phone : phones)
+                                updated = updated.put(node, phone.getModelName(), phone);
+                            return updated;
+                        }));
+                return Behaviors.same();
+            });
+        });
+    }
+
+    private PartitionEntity(ActorContext<Command> context, ActorRef<Commands.Command> service,
+                            ActorRef<List<Phone>> writer) {
+        super(context);
+        this.service = service;
+        this.writer = writer;
+        scheduler = context.getSystem().scheduler();
+        askTimeout = context.getSystem().settings().config().getDuration("my-app.routes.ask-timeout");
+        idempotency = new IdempotencyCache<>(context.getSystem().settings().config().getInt("my-app.routes.idempotency.max-entries"),
+                context.getSystem().settings().config().getDuration("my-app.routes.idempotency.ttl"));
+        idempotentReplays = Metrics.Id.get(context.getSystem())
+                .counter("idempotent_replays_total", "Writes answered from the Idempotency-Key cache");
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(Start.class, msg -> Behaviors.same())
+                .onMessage(Published.class, this::onPublished)
+                .onMessage(Written.class, this::onWritten)
+                // a key is compared by the write it was sent with, the message without its key and reply address
+                .onMessage(Book.class, msg -> write(msg.idempotencyKey(),
+                        new Book(msg.modelName(), msg.bookedBy(), msg.holdSeconds(), null, null), List.of(msg.modelName()),
+                        ref -> new Commands.BookPhone(msg.modelName(), msg.bookedBy(),
+                                msg.holdSeconds() == null ? null : Duration.ofSeconds(msg.holdSeconds()), ref),
+                        msg.replyTo()))
+                .onMessage(Return.class, msg -> write(msg.idempotencyKey(), new Return(msg.modelName(), null, null),
+                        List.of(msg.modelName()), ref -> new Commands.ReturnPhone(msg.modelName(), ref), msg.replyTo()))
+                .onMessage(ExtendHold.class, msg -> write(msg.idempotencyKey(),
+                        new ExtendHold(msg.modelName(), msg.bookedBy(), msg.holdSeconds(), null, null), List.of(msg.modelName()),
+                        ref -> new Commands.ExtendHold(msg.modelName(), msg.bookedBy(), Duration.ofSeconds(msg.holdSeconds()), ref),
+                        msg.replyTo()))
+                .onMessage(Batch.class, msg -> write(msg.idempotencyKey(), new Batch(msg.operations(), msg.atomic(), null, null),
+                        msg.operations().stream().map(Messages.BatchOperation::modelName).distinct().toList(),
+                        ref -> new Commands.BatchBooking(msg.operations(), msg.atomic(), ref), msg.replyTo()))
+                .onMessage(UserPhones.class, msg -> ask(ref -> new Commands.GetUserPhones(msg.bookedBy(), ref), msg.replyTo()))
+                .onMessage(UserHistory.class, msg -> ask(ref -> new Commands.GetUserHistory(msg.bookedBy(),
+                        msg.fromMillis(), msg.toMillis(), ref), msg.replyTo()))
+                // the service has failed, the next Start or command starts the partition again
+                .onSignal(Terminated.class, signal -> Behaviors.stopped())
+                .build();
+    }
+
+    private Behavior<Command> onPublished(Published msg) {
+        for (Phone phone : msg.phones())
+            latest.put(phone.getModelName(), phone);
+        writer.tell(msg.phones());
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> ask(akka.japi.function.Function<ActorRef<Messages.BookingResponse<?>>, Commands.Command> request,
+                                  ActorRef<Reply> replyTo) {
+        AskPattern.ask(service, request, askTimeout, scheduler).whenComplete((response, exception) ->
+                replyTo.tell(exception == null ? Reply.of(response) : notAnswered()));
+        return Behaviors.same();
+    }
+
+    // Answered through the entity, so the reply can carry the phones published by the write.
+    // A retry with the key of a write gets its reply, even while it is in flight, without the changed phones:
+    // they may be older than the replica it comes through by now.
+    private Behavior<Command> write(String key, Object write, List<String> models,
+                                    akka.japi.function.Function<ActorRef<Messages.BookingResponse<?>>, Commands.Command> request,
+                                    ActorRef<Reply> replyTo) {
+        CompletableFuture<Reply> keyed = key == null ? null : new CompletableFuture<>();
+        if (key != null) {
+            IdempotencyCache.Cached<Reply> cached = idempotency.putIfAbsent(key, write, keyed);
+            if (cached != null) {
+                if (!cached.request().equals(write)) {
+                    replyTo.tell(new Reply(Status.conflict, "Idempotency-Key was used for a different request.",
+                            null, null, null, null));
+                    return Behaviors.same();
+                }
+                idempotentReplays.increment();
+                cached.response().thenAccept(reply -> replyTo.tell(reply.withChanged(null)));
+                return Behaviors.same();
+            }
+        }
+        getContext().pipeToSelf(AskPattern.ask(service, request, askTimeout, scheduler),
+                (response, exception) -> new Written(models, response, exception, replyTo, key, keyed));
+        return Behaviors.same();
+    }
+
+    // replies that did not apply the write, an overloaded service or a failed ask, free the key for a retry
+    private Behavior<Command> onWritten(Written msg) {
+        Reply reply = msg.failure() != null ? notAnswered() : Reply.of(msg.response());
+        if (reply.status() == Status.success)
+            reply = reply.withChanged(msg.models().stream().map(latest::get).filter(Objects::nonNull).toList());
+        if (msg.keyed() != null) {
+            if (reply.status() == Status.overloaded || reply.status() == error)
+                idempotency.remove(msg.key(), msg.keyed());
+            msg.keyed().complete(reply);
+        }
+        msg.replyTo().tell(reply);
+        return Behaviors.same();
+    }
+
+    private static Reply notAnswered() {
+        return new Reply(error, "The partition did not answer.", null, null, null, null);
+    }
+}
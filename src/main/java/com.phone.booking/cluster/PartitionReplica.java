@@ -0,0 +1,295 @@
+package com.phone.booking.cluster;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
+import akka.cluster.ddata.Key;
+import akka.cluster.ddata.LWWMap;
+import akka.cluster.ddata.LWWMapKey;
+import akka.cluster.ddata.typed.javadsl.DistributedData;
+import akka.cluster.ddata.typed.javadsl.Replicator;
+import akka.cluster.ddata.typed.javadsl.ReplicatorMessageAdapter;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.EntityRef;
+import com.phone.booking.messages.Commands;
+import com.phone.booking.messages.Messages;
+import com.phone.booking.models.Phone;
+import com.phone.booking.store.InventorySnapshot;
+import com.phone.booking.store.PhoneIndexes;
+import com.phone.booking.store.PhoneInventoryView;
+import com.phone.booking.store.PhoneSearchIndex;
+
+import java.time.Duration;
+import java.util.*;
+
+import static com.phone.booking.Status.*;
+
+/**
+ * Read side of one partition on every node of a cluster. Follows the phones its {@link PartitionEntity}
+ * replicates with Distributed Data and answers the reads from them locally, wherever the entity runs.
+ * Writes, and the reads only the owner can answer, are forwarded to the entity.
+ * Reads are eventually consistent: a write is seen here once it has been gossiped to this node, except for
+ * the writes forwarded by this replica, whose changed phones are applied from the reply of the entity before the
+ * write is answered. A client reading from the node it wrote through therefore sees its own writes.
+ */
+public class PartitionReplica extends AbstractBehavior<Commands.Command> {
+
+    private enum KeepAlive implements Commands.Command { INSTANCE }
+
+    private record Replicated(Replicator.SubscribeResponse<LWWMap<String, Phone>> response) implements Commands.Command { }
+
+    private record Written(PartitionEntity.Reply reply, Throwable failure,
+                           ActorRef<Messages.BookingResponse<?>> replyTo) implements Commands.Command { }
+
+    // the booked units of the booker of a query, as the owner answered them
+    private record BookedUnits(Messages.PhoneQuery query, PartitionEntity.Reply reply, Throwable failure,
+                               ActorRef<Messages.BookingResponse<?>> replyTo) implements Commands.Command { }
+
+    // a phone applied from the reply to a write, until gossip brings the same phone or the deadline passes
+    private record Ahead(Phone phone, long deadline) { }
+
+    private final int partition;
+    // null when nobody reads the published snapshots
+    private final PhoneInventoryView view;
+    private final EntityRef<PartitionEntity.Command> entity;
+    private final Duration askTimeout;
+    private final long ownWritesNanos;
+    private final Map<String, Phone> phones = new HashMap<>();
+    private final Map<String, Ahead> ahead = new HashMap<>();
+    private final PhoneIndexes indexes = new PhoneIndexes();
+    private PhoneSearchIndex searchIndex;
+    private InventorySnapshot published;
+
+    static Key<LWWMap<String, Phone>> key(int partition) {
+        return LWWMapKey.create("phones-" + partition);
+    }
+
+    public static Behavior<Commands.Command> create(int partition, PhoneInventoryView view) {
+        return Behaviors.setup(ctx -> DistributedData.<Commands.Command, LWWMap<String, Phone>>withReplicatorMessageAdapter(
+                replicator -> Behaviors.withTimers(timers -> {
+                    ctx.setLoggerName(PartitionReplica.class.getName());
+                    ctx.getLog().info("Starting replica of partition {}", partition);
+                    return new PartitionReplica(ctx, replicator, timers, partition, view);
+                })));
+    }
+
+    private PartitionReplica(ActorContext<Commands.Command> context,
+                             ReplicatorMessageAdapter<Commands.Command, LWWMap<String, Phone>> replicator,
+                             TimerScheduler<Commands.Command> timers, int partition, PhoneInventoryView view) {
+        super(context);
+        this.partition = partition;
+        this.view = view;
+        askTimeout = context.getSystem().settings().config().getDuration("my-app.routes.ask-timeout");
+        ownWritesNanos = context.getSystem().settings().config().getDuration("my-app.cluster.own-writes-window").toNanos();
+        entity = ClusterSharding.get(context.getSystem())
+                .entityRefFor(PartitionEntity.TYPE_KEY, Integer.toString(partition));
+        replicator.subscribe(key(partition), Replicated::new);
+        // sharding only starts an entity on a message, this keeps the partition running wherever it is allocated
+        entity.tell(PartitionEntity.Start.INSTANCE);
+        timers.startTimerWithFixedDelay(KeepAlive.INSTANCE,
+                context.getSystem().settings().config().getDuration("my-app.cluster.keep-alive"));
+    }
+
+    @Override
+    public Receive<Commands.Command> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(Replicated.class, this::onReplicated)
+                .onMessage(Written.class, this::onWritten)
+                .onMessage(BookedUnits.class, this::onBookedUnits)
+                .onMessage(KeepAlive.class, msg -> {
+                    entity.tell(PartitionEntity.Start.INSTANCE);
+                    return Behaviors.same();
+                })
+                .onMessage(Commands.GetAllPhones.class, this::getAllPhones)
+                .onMessage(Commands.GetPhoneDetails.class, this::getPhoneDetails)
+                .onMessage(Commands.QueryPhones.class, this::queryPhones)
+                .onMessage(Commands.SearchPhones.class, this::searchPhones)
+                .onMessage(Commands.BookPhone.class, msg -> write(ref -> new PartitionEntity.Book(msg.modelName(),
+                        msg.bookedBy(), msg.hold() == null ? null : msg.hold().toSeconds(), msg.idempotencyKey(), ref),
+                        msg.replyTo()))
+                .onMessage(Commands.ReturnPhone.class, msg -> write(ref -> new PartitionEntity.Return(msg.modelName(),
+                        msg.idempotencyKey(), ref), msg.replyTo()))
+                .onMessage(Commands.ExtendHold.class, msg -> write(ref -> new PartitionEntity.ExtendHold(msg.modelName(),
+                        msg.bookedBy(), msg.hold().toSeconds(), msg.idempotencyKey(), ref), msg.replyTo()))
+                .onMessage(Commands.BatchBooking.class, msg -> write(ref -> new PartitionEntity.Batch(msg.operations(),
+                        msg.atomic(), msg.idempotencyKey(), ref), msg.replyTo()))
+                // one entry per booked unit and the history files are only known to the owner
+                .onMessage(Commands.GetUserPhones.class, msg -> forward(ref -> new PartitionEntity.UserPhones(msg.bookedBy(), ref),
+                        msg.replyTo()))
+                .onMessage(Commands.GetUserHistory.class, msg -> forward(ref -> new PartitionEntity.UserHistory(msg.bookedBy(),
+                        msg.fromMillis(), msg.toMillis(), ref), msg.replyTo()))
+                .build();
+    }
+
+    // Changes are notified at most every notify-subscribers-interval, each notification may cover several writes.
+    // A phone this replica is ahead on keeps its own value until gossip has caught up with it; a different value
+    // only wins once own-writes-window has passed, in case a later write from another node overtook it.
+    private Behavior<Commands.Command> onReplicated(Replicated msg) {
+        if (!(msg.response() instanceof Replicator.Changed<LWWMap<String, Phone>> changed))
+            return Behaviors.same();
+        long now = System.nanoTime();
+        List<Phone> replicated = new ArrayList<>();
+        for (Phone phone : changed.dataValue().getEntries().values()) {
+            Ahead own = ahead.get(phone.getModelName());
+            if (own != null) {
+                if (!own.phone().equals(phone) && own.deadline() - now > 0)
+                    continue;
+                ahead.remove(phone.getModelName());
+            }
+            replicated.add(phone);
+        }
+        apply(replicated);
+        return Behaviors.same();
+    }
+
+    private Behavior<Commands.Command> onWritten(Written msg) {
+        if (msg.failure() != null) {
+            msg.replyTo().tell(new Messages.BookingResponse<>(error, "The partition did not answer."));
+            return Behaviors.same();
+        }
+        List<Phone> changed = msg.reply().changed();
+        if (changed != null && searchIndex != null) {
+            long deadline = System.nanoTime() + ownWritesNanos;
+            for (Phone phone : changed)
+                ahead.put(phone.getModelName(), new Ahead(phone, deadline));
+            apply(changed);
+        }
+        msg.replyTo().tell(msg.reply().toResponse());
+        return Behaviors.same();
+    }
+
+    private void apply(Collection<Phone> changed) {
+        List<Phone> updated = new ArrayList<>();
+        boolean reindex = false;
+        for (Phone phone : changed) {
+            Phone previous = phones.put(phone.getModelName(), phone);
+            if (phone.equals(previous))
+                continue;
+            updated.add(phone);
+            indexes.update(phone);
+            reindex |= previous == null || !Objects.equals(previous.getTechnology(), phone.getTechnology());
+        }
+        if (updated.isEmpty())
+            return;
+        if (reindex)
+            searchIndex = PhoneSearchIndex.of(phones.values());
+        publish(updated, reindex);
+    }
+
+    private void publish(List<Phone> updated, boolean reindex) {
+        if (view == null)
+            return;
+        if (published == null) {
+            published = InventorySnapshot.of(1, phones.values());
+        } else {
+            for (Phone phone : updated)
+                published = published.with(phone);
+        }
+        view.publish(partition, published);
+        view.reportEnrichment(partition, phones.size(), phones.size());
+        if (reindex)
+            view.publishSearchIndex(partition, searchIndex);
+        if (view.changes() != null)
+            updated.forEach(view.changes()::publish);
+    }
+
+    private boolean notReplicated(ActorRef<Messages.BookingResponse<?>> replyTo) {
+        if (searchIndex != null)
+            return false;
+        replyTo.tell(new Messages.BookingResponse<>(overloaded, "The inventory has not been replicated yet."));
+        return true;
+    }
+
+    private Behavior<Commands.Command> getAllPhones(Commands.GetAllPhones msg) {
+        if (notReplicated(msg.replyTo()))
+            return Behaviors.same();
+        List<Phone> all = new ArrayList<>(phones.values());
+        all.sort(Comparator.comparing(Phone::getModelName));
+        msg.replyTo().tell(new Messages.BookingResponse<>(success, all));
+        return Behaviors.same();
+    }
+
+    private Behavior<Commands.Command> getPhoneDetails(Commands.GetPhoneDetails msg) {
+        if (notReplicated(msg.replyTo()))
+            return Behaviors.same();
+        Phone phone = phones.get(msg.modelName());
+        if (phone != null)
+            msg.replyTo().tell(new Messages.BookingResponse<>(success, phone));
+        else
+            msg.replyTo().tell(new Messages.BookingResponse<>(notFound, "Phone not found."));
+        return Behaviors.same();
+    }
+
+    // same as BookingService.queryPhones, over the replicated phones. The bookers of the units of a model with
+    // several units are only known to the owner, so a query by booker asks it for the booked units first
+    private Behavior<Commands.Command> queryPhones(Commands.QueryPhones msg) {
+        if (notReplicated(msg.replyTo()))
+            return Behaviors.same();
+        Messages.PhoneQuery query = msg.query();
+        if (query.bookedBy() != null) {
+            getContext().pipeToSelf(entity.ask(ref -> new PartitionEntity.UserPhones(query.bookedBy(), ref), askTimeout),
+                    (reply, exception) -> new BookedUnits(query, reply, exception, msg.replyTo()));
+            return Behaviors.same();
+        }
+        msg.replyTo().tell(page(query, indexes.candidates(query, null)));
+        return Behaviors.same();
+    }
+
+    private Behavior<Commands.Command> onBookedUnits(BookedUnits msg) {
+        if (msg.failure() != null) {
+            msg.replyTo().tell(new Messages.BookingResponse<>(error, "The partition did not answer."));
+            return Behaviors.same();
+        }
+        if (msg.reply().status() != success) {
+            msg.replyTo().tell(msg.reply().toResponse());
+            return Behaviors.same();
+        }
+        NavigableSet<String> models = new TreeSet<>();
+        for (Phone unit : msg.reply().phones())
+            models.add(unit.getModelName());
+        msg.replyTo().tell(page(msg.query(), indexes.candidates(msg.query(), models)));
+        return Behaviors.same();
+    }
+
+    private Messages.BookingResponse<?> page(Messages.PhoneQuery query, Collection<String> candidates) {
+        List<Phone> page = new ArrayList<>();
+        for (String model : candidates) {
+            Phone phone = phones.get(model);
+            if (phone != null && query.matches(phone)) {
+                page.add(phone);
+                if (page.size() == query.limit())
+                    break;
+            }
+        }
+        String nextCursor = page.size() == query.limit() ? page.get(page.size() - 1).getModelName() : null;
+        return new Messages.BookingResponse<>(success, new Messages.PhonePage(page, nextCursor));
+    }
+
+    private Behavior<Commands.Command> searchPhones(Commands.SearchPhones msg) {
+        if (notReplicated(msg.replyTo()))
+            return Behaviors.same();
+        List<Phone> found = new ArrayList<>();
+        for (String model : searchIndex.search(msg.query(), msg.limit()))
+            found.add(phones.get(model));
+        msg.replyTo().tell(new Messages.BookingResponse<>(success, found));
+        return Behaviors.same();
+    }
+
+    private Behavior<Commands.Command> forward(akka.japi.function.Function<ActorRef<PartitionEntity.Reply>, PartitionEntity.Command> request,
+                                               ActorRef<Messages.BookingResponse<?>> replyTo) {
+        entity.ask(request, askTimeout).whenComplete((reply, exception) ->
+                replyTo.tell(exception == null ? reply.toResponse()
+                        : new Messages.BookingResponse<>(error, "The partition did not answer.")));
+        return Behaviors.same();
+    }
+
+    private Behavior<Commands.Command> write(akka.japi.function.Function<ActorRef<PartitionEntity.Reply>, PartitionEntity.Command> request,
+                                             ActorRef<Messages.BookingResponse<?>> replyTo) {
+        getContext().pipeToSelf(entity.ask(request, askTimeout), (reply, exception) -> new Written(reply, exception, replyTo));
+        return Behaviors.same();
+    }
+}
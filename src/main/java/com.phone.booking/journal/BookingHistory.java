@@ -0,0 +1,260 @@
+package com.phone.booking.journal;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only history of the bookings of one booking actor, kept for a retention period.
+ * Entries are grouped into segments of a fixed time span, one file per segment. Each segment indexes its
+ * entries by user, so a query only reads the segments overlapping its time range and within those only
+ * the entries of the user. Segments past the retention are deleted as a whole.
+ * Entries are buffered by {@link #append} and written with one fsync per segment by {@link #flush}.
+ * The owning actor is the only caller, except for {@link #write}: the actor takes the buffered entries with
+ * {@link #takeBuffered} and may have them written on another thread while it keeps appending.
+ */
+public class BookingHistory implements AutoCloseable {
+
+    public record Entry(long time, String type, String modelName, String bookedBy) {
+        public static final String BOOKED = "booked";
+        public static final String RETURNED = "returned";
+        public static final String EXPIRED = "expired";
+    }
+
+    /**
+     * Buffered entries taken for a write, and the segments past the retention whose files it deletes.
+     */
+    public record Write(List<Entry> entries, List<Long> expiredSegments) {
+        public boolean isEmpty() {
+            return entries.isEmpty() && expiredSegments.isEmpty();
+        }
+    }
+
+    private static final String SUFFIX = ".history";
+
+    private final Path dir;
+    private final String prefix;
+    private final long segmentMillis;
+    private final long retentionMillis;
+    private final ObjectMapper mapper;
+    // segment start -> entries of the segment by user, each list in the order the entries were appended
+    private final NavigableMap<Long, Map<String, List<Entry>>> segments = new TreeMap<>();
+    private final List<Entry> buffer = new ArrayList<>();
+    // expired segments whose files a write failed to delete, the next write tries again
+    private final List<Long> undeleted = new ArrayList<>();
+    private long lastAppended;
+
+    public BookingHistory(Path dir, String persistenceId, Duration segment, Duration retention) throws IOException {
+        Files.createDirectories(dir);
+        this.dir = dir;
+        prefix = persistenceId + "-";
+        segmentMillis = segment.toMillis();
+        retentionMillis = retention.toMillis();
+        mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    /**
+     * Loads the segments within the retention and deletes the older ones.
+     */
+    public void load(long nowMillis) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long start;
+                try {
+                    start = Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length()));
+                } catch (NumberFormatException exception) {
+                    // another actor whose name starts with this one's
+                    continue;
+                }
+                if (expired(start, nowMillis)) {
+                    Files.delete(file);
+                    continue;
+                }
+                Map<String, List<Entry>> segment = segments.computeIfAbsent(start, key -> new HashMap<>());
+                List<String> validLines = new ArrayList<>();
+                boolean tornLine = false;
+                try (BufferedReader reader = Files.newBufferedReader(file)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isBlank())
+                            continue;
+                        Entry entry;
+                        try {
+                            entry = mapper.readValue(line, Entry.class);
+                        } catch (JsonProcessingException exception) {
+                            // a crash in the middle of a flush leaves a partial line behind, the lines after it still count
+                            tornLine = true;
+                            continue;
+                        }
+                        validLines.add(line);
+                        segment.computeIfAbsent(entry.bookedBy(), user -> new ArrayList<>()).add(entry);
+                    }
+                }
+                // later entries are appended to the file, so the partial line must go; the file is replaced
+                // atomically, a crash while rewriting it must not cost the good lines
+                if (tornLine) {
+                    Path tmp = file.resolveSibling(name + ".tmp");
+                    Files.write(tmp, validLines);
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+        }
+    }
+
+    public synchronized void append(long time, String type, String modelName, String bookedBy) {
+        if (bookedBy == null)
+            return;
+        Entry entry = new Entry(time, type, modelName, bookedBy);
+        lastAppended = Math.max(lastAppended, time);
+        segments.computeIfAbsent(segmentOf(time), key -> new HashMap<>())
+                .computeIfAbsent(bookedBy, user -> new ArrayList<>())
+                .add(entry);
+        buffer.add(entry);
+    }
+
+    /**
+     * The entries of the user from fromMillis up to and including toMillis, in time order.
+     */
+    public List<Entry> query(String bookedBy, long fromMillis, long toMillis) {
+        List<Entry> entries = new ArrayList<>();
+        if (fromMillis > toMillis)
+            return entries;
+        for (Map<String, List<Entry>> segment : segments.subMap(segmentOf(fromMillis), true, toMillis, true).values())
+            for (Entry entry : segment.getOrDefault(bookedBy, List.of()))
+                if (entry.time() >= fromMillis && entry.time() <= toMillis)
+                    entries.add(entry);
+        // the clock may have stepped back between two appends
+        entries.sort((a, b) -> Long.compare(a.time(), b.time()));
+        return entries;
+    }
+
+    /**
+     * Writes the buffered entries and deletes the segments that have fallen out of the retention by the time
+     * of the last entry.
+     */
+    public void flush() throws IOException {
+        write(takeBuffered(lastAppended));
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Takes the buffered entries for {@link #write} and drops the segments that have fallen out of the retention
+     * by nowMillis from the queries, also while nothing is appended. Only one write may be in flight at a time.
+     */
+    public synchronized Write takeBuffered(long nowMillis) {
+        List<Long> expiredSegments = new ArrayList<>(undeleted);
+        undeleted.clear();
+        while (!segments.isEmpty() && expired(segments.firstKey(), Math.max(lastAppended, nowMillis)))
+            expiredSegments.add(segments.pollFirstEntry().getKey());
+        if (buffer.isEmpty())
+            return new Write(List.of(), expiredSegments);
+        // also drops entries of a failed write whose segment expired since
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : buffer)
+            if (segments.containsKey(segmentOf(entry.time())))
+                entries.add(entry);
+        buffer.clear();
+        return new Write(entries, expiredSegments);
+    }
+
+    /**
+     * Writes the taken entries, then deletes the files of the expired segments. When the entries cannot be written
+     * every segment file is truncated back to where the write started and they go back to the buffer, ahead of
+     * the entries appended meanwhile. Segments whose files could not be deleted are left to the next write.
+     */
+    public void write(Write write) throws IOException {
+        if (!write.entries().isEmpty())
+            appendEntries(write);
+        IOException failure = null;
+        for (long start : write.expiredSegments()) {
+            try {
+                Files.deleteIfExists(fileOf(start));
+            } catch (IOException exception) {
+                synchronized (this) {
+                    undeleted.add(start);
+                }
+                if (failure == null)
+                    failure = exception;
+                else
+                    failure.addSuppressed(exception);
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private void appendEntries(Write write) throws IOException {
+        // size of every segment file before the write, to undo a write that failed halfway
+        Map<Path, Long> sizes = new LinkedHashMap<>();
+        try {
+            Map<Long, ByteArrayOutputStream> lines = new LinkedHashMap<>();
+            for (Entry entry : write.entries()) {
+                ByteArrayOutputStream out = lines.computeIfAbsent(segmentOf(entry.time()), start -> new ByteArrayOutputStream());
+                out.write(mapper.writeValueAsBytes(entry));
+                out.write('\n');
+            }
+            for (Map.Entry<Long, ByteArrayOutputStream> segment : lines.entrySet()) {
+                Path file = fileOf(segment.getKey());
+                try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, APPEND)) {
+                    sizes.put(file, channel.size());
+                    ByteBuffer bytes = ByteBuffer.wrap(segment.getValue().toByteArray());
+                    while (bytes.hasRemaining())
+                        channel.write(bytes);
+                    channel.force(false);
+                }
+            }
+        } catch (IOException exception) {
+            // the next write must not append after a partial line, nor write the same entries twice
+            for (Map.Entry<Path, Long> size : sizes.entrySet()) {
+                try (FileChannel channel = FileChannel.open(size.getKey(), WRITE)) {
+                    channel.truncate(size.getValue());
+                } catch (IOException truncateFailure) {
+                    exception.addSuppressed(truncateFailure);
+                }
+            }
+            synchronized (this) {
+                buffer.addAll(0, write.entries());
+                undeleted.addAll(write.expiredSegments());
+            }
+            throw exception;
+        }
+    }
+
+    private boolean expired(long segmentStart, long nowMillis) {
+        return segmentStart + segmentMillis <= nowMillis - retentionMillis;
+    }
+
+    private long segmentOf(long time) {
+        return time - Math.floorMod(time, segmentMillis);
+    }
+
+    private Path fileOf(long segmentStart) {
+        return dir.resolve(prefix + segmentStart + SUFFIX);
+    }
+}
@@ -0,0 +1,214 @@
+package com.phone.booking.journal;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phone.booking.models.Phone;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only journal of booking events for one booking actor, with compact snapshots.
+ * Events are buffered by {@link #append} and written together with a single fsync by {@link #flush}.
+ * A snapshot covers every event up to its sequence number and truncates the journal, so recovery
+ * only ever replays the events written since the last snapshot.
+ * The owning actor is the only caller, except for {@link #write}: the actor takes the buffered events with
+ * {@link #takeBuffered} and may have them written on another thread while it keeps appending.
+ */
+public class BookingJournal implements AutoCloseable {
+
+    // the dates are instants, see DeviceInventory.formatInstant; holdUntil is only written for bookings with
+    // a hold and for extended holds
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Event(long seqNr, String type, String modelName, String bookedBy, String bookingDate, String holdUntil) {
+        public static final String BOOKED = "booked";
+        public static final String RETURNED = "returned";
+        public static final String HOLD_EXTENDED = "holdExtended";
+    }
+
+    public record Snapshot(long seqNr, List<Phone> phones) { }
+
+    public record Recovery(Snapshot snapshot, List<Event> events) { }
+
+    /**
+     * Buffered events taken for a write, and the snapshot covering them when one is due.
+     */
+    public record Write(List<Event> events, Snapshot snapshot) {
+        public boolean isEmpty() {
+            return events.isEmpty() && snapshot == null;
+        }
+    }
+
+    private final Path journalFile;
+    private final Path snapshotFile;
+    private final int snapshotEvery;
+    private final ObjectMapper mapper;
+    private final List<Event> buffer = new ArrayList<>();
+    private FileChannel channel;
+    private long seqNr;
+    // updated by the write, read by the actor once it completed
+    private volatile long eventsSinceSnapshot;
+
+    public BookingJournal(Path dir, String persistenceId, int snapshotEvery) throws IOException {
+        Files.createDirectories(dir);
+        journalFile = dir.resolve(persistenceId + ".journal");
+        snapshotFile = dir.resolve(persistenceId + ".snapshot");
+        this.snapshotEvery = snapshotEvery;
+        mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    /**
+     * Loads the latest snapshot and the journal events written after it, then opens the journal for appending.
+     */
+    public Recovery recover() throws IOException {
+        Snapshot snapshot = Files.exists(snapshotFile) ? mapper.readValue(snapshotFile.toFile(), Snapshot.class) : null;
+        long fromSeqNr = snapshot == null ? 0 : snapshot.seqNr();
+        seqNr = fromSeqNr;
+
+        List<Event> events = new ArrayList<>();
+        List<String> validLines = new ArrayList<>();
+        boolean rewrite = false;
+        if (Files.exists(journalFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(journalFile)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank())
+                        continue;
+                    Event event;
+                    try {
+                        event = mapper.readValue(line, Event.class);
+                    } catch (JsonProcessingException exception) {
+                        // a crash in the middle of a flush leaves a partial line behind, the lines after it still count
+                        rewrite = true;
+                        continue;
+                    }
+                    // covered by the snapshot, or written again after a failed write could not be undone
+                    if (event.seqNr() <= seqNr) {
+                        rewrite = true;
+                        continue;
+                    }
+                    validLines.add(line);
+                    events.add(event);
+                    seqNr = event.seqNr();
+                }
+            }
+        }
+        if (rewrite)
+            replaceAtomically(journalFile, (String.join("\n", validLines) + (validLines.isEmpty() ? "" : "\n")).getBytes());
+
+        eventsSinceSnapshot = events.size();
+        channel = FileChannel.open(journalFile, CREATE, WRITE, APPEND);
+        return new Recovery(snapshot, events);
+    }
+
+    public void append(String type, String modelName, String bookedBy, String bookingDate) {
+        append(type, modelName, bookedBy, bookingDate, null);
+    }
+
+    public synchronized void append(String type, String modelName, String bookedBy, String bookingDate, String holdUntil) {
+        buffer.add(new Event(++seqNr, type, modelName, bookedBy, bookingDate, holdUntil));
+    }
+
+    public void flush() throws IOException {
+        write(takeBuffered(null));
+    }
+
+    public synchronized boolean snapshotDue() {
+        return eventsSinceSnapshot + buffer.size() >= snapshotEvery;
+    }
+
+    public void saveSnapshot(Collection<Phone> phones) throws IOException {
+        write(takeBuffered(phones));
+    }
+
+    /**
+     * Takes the buffered events for {@link #write}. Given the phones, the write also saves them as the snapshot
+     * covering every event appended so far. Only one write may be in flight at a time.
+     */
+    public synchronized Write takeBuffered(Collection<Phone> snapshotPhones) {
+        Write write = new Write(new ArrayList<>(buffer),
+                snapshotPhones == null ? null : new Snapshot(seqNr, new ArrayList<>(snapshotPhones)));
+        buffer.clear();
+        return write;
+    }
+
+    /**
+     * Writes the taken events with a single fsync, then the snapshot. When the events cannot be written the journal
+     * is truncated back to where the write started and they go back to the buffer, ahead of the events appended
+     * meanwhile.
+     */
+    public void write(Write write) throws IOException {
+        if (!write.events().isEmpty()) {
+            long size = -1;
+            try {
+                size = channel.size();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                for (Event event : write.events()) {
+                    out.write(mapper.writeValueAsBytes(event));
+                    out.write('\n');
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(out.toByteArray());
+                while (bytes.hasRemaining())
+                    channel.write(bytes);
+                channel.force(false);
+            } catch (IOException exception) {
+                // the next write must not append after a partial line, nor write the same events twice
+                if (size >= 0) {
+                    try {
+                        channel.truncate(size);
+                    } catch (IOException truncateFailure) {
+                        exception.addSuppressed(truncateFailure);
+                    }
+                }
+                synchronized (this) {
+                    buffer.addAll(0, write.events());
+                }
+                throw exception;
+            }
+            eventsSinceSnapshot += write.events().size();
+        }
+        if (write.snapshot() != null) {
+            replaceAtomically(snapshotFile, mapper.writeValueAsBytes(write.snapshot()));
+            // everything in the journal is covered by the snapshot now, later events are still buffered
+            channel.truncate(0);
+            eventsSinceSnapshot = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null)
+            return;
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void replaceAtomically(Path target, byte[] content) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(content);
+            while (bytes.hasRemaining())
+                out.write(bytes);
+            out.force(true);
+        }
+        Files.move(tmp, target, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+}
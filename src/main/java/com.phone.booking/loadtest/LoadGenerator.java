@@ -0,0 +1,218 @@
+package com.phone.booking.loadtest;
+
+import akka.NotUsed;
+import akka.actor.typed.ActorSystem;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.ServerBinding;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import ch.qos.logback.classic.Level;
+import com.phone.booking.PhoneBookingApp;
+import com.phone.booking.metrics.LatencyHistogram;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-model load test of the real server over the loopback interface, in a single process.
+ * Requests are started on a fixed schedule whether or not earlier ones have completed, and their latency is
+ * measured from the scheduled start. A stalled server is charged for the requests that should have been sent
+ * meanwhile, so the percentiles are corrected for coordinated omission.
+ * <p>
+ * Traffic is configured in my-app.load-test, any setting can be overridden with a system property,
+ * e.g. {@code -Dmy-app.load-test.rate=2000}.
+ */
+public class LoadGenerator {
+
+    enum Kind { read, list, write }
+
+    private record Planned(Kind kind, HttpRequest request) { }
+
+    private static class Results {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder ok = new LongAdder();
+        final LongAdder clientErrors = new LongAdder();
+        final LongAdder overloaded = new LongAdder();
+        final LongAdder failed = new LongAdder();
+    }
+
+    private final ActorSystem<?> system;
+    private final String baseUri;
+    private final List<String> models;
+    private final double rate;
+    private final Duration duration;
+    private final Duration warmup;
+    private final double writeRatio;
+    private final double listRatio;
+    // cumulative zipf weights of the models, in their configured order
+    private final double[] popularity;
+    private final Results[] results = new Results[Kind.values().length];
+    private final AtomicLong outstanding = new AtomicLong();
+    private final AtomicLong lastCompletion = new AtomicLong();
+    // from the end of the warmup to the last measured completion
+    private long measuredNanos = 1;
+
+    public LoadGenerator(ActorSystem<?> system, String baseUri, List<String> models, Config settings) {
+        this.system = system;
+        this.baseUri = baseUri;
+        this.models = models.stream().map(String::trim).toList();
+        rate = settings.getDouble("rate");
+        duration = settings.getDuration("duration");
+        warmup = settings.getDuration("warmup");
+        writeRatio = settings.getDouble("write-ratio");
+        listRatio = settings.getDouble("list-ratio");
+        if (rate <= 0)
+            throw new IllegalArgumentException("rate must be positive: " + rate);
+
+        double skew = settings.getDouble("skew");
+        popularity = new double[this.models.size()];
+        double total = 0;
+        for (int i = 0; i < popularity.length; i++) {
+            total += 1 / Math.pow(i + 1, skew);
+            popularity[i] = total;
+        }
+        for (int i = 0; i < popularity.length; i++)
+            popularity[i] /= total;
+        Arrays.setAll(results, i -> new Results());
+    }
+
+    public static void main(String[] args) throws Exception {
+        // debug logging of every request would measure the logger instead of the server
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+
+        Config config = ConfigFactory.systemProperties()
+                .withFallback(ConfigFactory.parseString("""
+                        my-app.http.host = "127.0.0.1"
+                        my-app.http.port = 0
+                        my-app.journal.enabled = false
+                        akka.loglevel = INFO
+                        akka.http.host-connection-pool.max-connections = 64
+                        akka.http.host-connection-pool.max-open-requests = 8192
+                        """))
+                .withFallback(ConfigFactory.load())
+                .resolve();
+        CompletableFuture<ServerBinding> binding = new CompletableFuture<>();
+        ActorSystem<NotUsed> system = ActorSystem.create(PhoneBookingApp.rootBehavior(binding), "load-test", config);
+        try {
+            ServerBinding bound = binding.get(30, TimeUnit.SECONDS);
+            String baseUri = "http://127.0.0.1:" + bound.localAddress().getPort();
+            LoadGenerator generator = new LoadGenerator(system, baseUri,
+                    config.getStringList("my-app.phones"), config.getConfig("my-app.load-test"));
+            generator.run();
+            generator.report(System.out);
+        } finally {
+            system.terminate();
+        }
+    }
+
+    public void run() throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        double intervalNanos = 1e9 / rate;
+        lastCompletion.set(measureFrom);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (long i = 0; ; i++) {
+            long scheduled = start + (long) (i * intervalNanos);
+            if (scheduled - end >= 0)
+                break;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            send(plan(random), scheduled, scheduled - measureFrom >= 0);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (outstanding.get() > 0 && System.nanoTime() - deadline < 0)
+            Thread.sleep(10);
+        measuredNanos = Math.max(lastCompletion.get() - measureFrom, 1);
+    }
+
+    private void send(Planned planned, long scheduled, boolean measured) {
+        outstanding.incrementAndGet();
+        Http.get(system).singleRequest(planned.request())
+                .thenCompose(response -> response.discardEntityBytes(system).completionStage()
+                        .thenApply(done -> response.status().intValue()))
+                .whenComplete((status, failure) -> {
+                    long completed = System.nanoTime();
+                    if (measured) {
+                        Results kind = results[planned.kind().ordinal()];
+                        kind.latency.record(completed - scheduled);
+                        if (failure != null || status >= 500 && status != 503)
+                            kind.failed.increment();
+                        else if (status == 503)
+                            kind.overloaded.increment();
+                        else if (status >= 400)
+                            kind.clientErrors.increment();
+                        else
+                            kind.ok.increment();
+                        lastCompletion.accumulateAndGet(completed, Math::max);
+                    }
+                    outstanding.decrementAndGet();
+                });
+    }
+
+    private Planned plan(ThreadLocalRandom random) {
+        String model = models.get(pickModel(random.nextDouble()));
+        if (random.nextDouble() < writeRatio) {
+            HttpRequest request = random.nextBoolean()
+                    ? HttpRequest.PUT(baseUri + "/phones/book").withEntity(ContentTypes.APPLICATION_JSON,
+                            "{\"bookedBy\":\"Load Test\",\"modelName\":\"" + model + "\"}")
+                    : HttpRequest.PUT(baseUri + "/phones/return/" + encode(model));
+            return new Planned(Kind.write, request);
+        }
+        if (random.nextDouble() < listRatio)
+            return new Planned(Kind.list, HttpRequest.GET(baseUri + "/phones"));
+        return new Planned(Kind.read, HttpRequest.GET(baseUri + "/phones/" + encode(model)));
+    }
+
+    private int pickModel(double sample) {
+        int index = Arrays.binarySearch(popularity, sample);
+        return Math.min(index >= 0 ? index : -index - 1, popularity.length - 1);
+    }
+
+    private static String encode(String model) {
+        return URLEncoder.encode(model, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    public void report(PrintStream out) {
+        long completed = 0;
+        for (Results kind : results)
+            completed += kind.latency.count();
+        double seconds = measuredNanos / 1e9;
+
+        out.printf("Load test: %.0f req/s for %s after %s warmup, write ratio %.2f, list ratio %.2f%n",
+                rate, duration, warmup, writeRatio, listRatio);
+        out.printf("Completed %d measured requests in %.1fs: %.1f req/s, %d still outstanding%n",
+                completed, seconds, completed / seconds, outstanding.get());
+        out.printf("%-6s %8s %8s %8s %8s %8s %9s %9s %9s %9s %9s%n",
+                "kind", "count", "2xx", "4xx", "503", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Kind kind : Kind.values()) {
+            Results result = results[kind.ordinal()];
+            LatencyHistogram latency = result.latency;
+            out.printf("%-6s %8d %8d %8d %8d %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    kind, latency.count(), result.ok.sum(), result.clientErrors.sum(), result.overloaded.sum(),
+                    result.failed.sum(), millis(latency.quantile(0.5)), millis(latency.quantile(0.9)),
+                    millis(latency.quantile(0.99)), millis(latency.quantile(0.999)), millis(latency.quantile(1)));
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
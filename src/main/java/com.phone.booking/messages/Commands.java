@@ -3,18 +3,70 @@ package com.phone.booking.messages;
 import akka.actor.typed.ActorRef;
 import com.phone.booking.models.Phone;
 
+import java.time.Duration;
 import java.util.List;
 
 public class Commands {
 
     public interface Command { }
 
+    // Commands addressing a single model; a sharded service routes these by modelName
+    public interface ModelCommand extends Command {
+        String modelName();
+    }
+
     public record GetAllPhones(ActorRef<Messages.BookingResponse<?>> replyTo) implements Command { }
 
-    public record GetPhoneDetails(String modelName, ActorRef<Messages.BookingResponse<?>> replyTo) implements Command { }
+    public record QueryPhones(Messages.PhoneQuery query, ActorRef<Messages.BookingResponse<?>> replyTo) implements Command { }
+
+    // idempotencyKey of a write is null unless it was sent with an Idempotency-Key to a cluster, whose partition
+    // owners deduplicate on it; a single node does so in its routes
+    public record BatchBooking(List<Messages.BatchOperation> operations, boolean atomic, String idempotencyKey,
+                               ActorRef<Messages.BookingResponse<?>> replyTo) implements Command {
+
+        public BatchBooking(List<Messages.BatchOperation> operations, boolean atomic,
+                            ActorRef<Messages.BookingResponse<?>> replyTo) {
+            this(operations, atomic, null, replyTo);
+        }
+    }
+
+    public record SearchPhones(String query, int limit, ActorRef<Messages.BookingResponse<?>> replyTo) implements Command { }
+
+    public record GetUserPhones(String bookedBy, ActorRef<Messages.BookingResponse<?>> replyTo) implements Command { }
+
+    // from and to are epoch millis, both inclusive
+    public record GetUserHistory(String bookedBy, long fromMillis, long toMillis,
+                                 ActorRef<Messages.BookingResponse<?>> replyTo) implements Command { }
+
+    public record GetPhoneDetails(String modelName, ActorRef<Messages.BookingResponse<?>> replyTo) implements ModelCommand { }
+
+    // hold is null for a booking that lasts until the phone is returned
+    public record BookPhone(String modelName, String bookedBy, Duration hold, String idempotencyKey,
+                            ActorRef<Messages.BookingResponse<?>> replyTo) implements ModelCommand {
+
+        public BookPhone(String modelName, String bookedBy, Duration hold, ActorRef<Messages.BookingResponse<?>> replyTo) {
+            this(modelName, bookedBy, hold, null, replyTo);
+        }
+
+        public BookPhone(String modelName, String bookedBy, ActorRef<Messages.BookingResponse<?>> replyTo) {
+            this(modelName, bookedBy, null, null, replyTo);
+        }
+    }
+
+    public record ExtendHold(String modelName, String bookedBy, Duration hold, String idempotencyKey,
+                             ActorRef<Messages.BookingResponse<?>> replyTo) implements ModelCommand {
+
+        public ExtendHold(String modelName, String bookedBy, Duration hold, ActorRef<Messages.BookingResponse<?>> replyTo) {
+            this(modelName, bookedBy, hold, null, replyTo);
+        }
+    }
 
-    public record BookPhone(String modelName, String bookedBy, ActorRef<Messages.BookingResponse<?>> replyTo) implements Command { }
+    public record ReturnPhone(String modelName, String idempotencyKey,
+                              ActorRef<Messages.BookingResponse<?>> replyTo) implements ModelCommand {
 
-    public record ReturnPhone(String modelName, ActorRef<Messages.BookingResponse<?>> replyTo) implements Command { }
+        public ReturnPhone(String modelName, ActorRef<Messages.BookingResponse<?>> replyTo) {
+            this(modelName, null, replyTo);
+        }
+    }
 
 }
@@ -2,11 +2,49 @@ package com.phone.booking.messages;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.phone.booking.Status;
+import com.phone.booking.models.Phone;
+
+import java.util.List;
 
 public class Messages {
 
-    public record BookingRequest(String modelName, String bookedBy) {}
+    // holdSeconds is optional, a booking with a hold is returned automatically once it expires
+    public record BookingRequest(String modelName, String bookedBy, Long holdSeconds) {}
+
+    // extends the holds of the units of the model booked by bookedBy to holdSeconds from now
+    public record HoldRequest(String modelName, String bookedBy, Long holdSeconds) {}
 
     @JsonIgnoreProperties(ignoreUnknown = true)
     public record BookingResponse<T>(Status status, T data){ }
+
+    // null filters match every phone, cursor is the last model of the previous page.
+    // bookedBy is matched by the candidates of PhoneIndexes, a model with several units does not show its bookers
+    public record PhoneQuery(Boolean available, String technology, String bookedBy, String cursor, int limit) {
+
+        public PhoneQuery withCursor(String cursor) {
+            return new PhoneQuery(available, technology, bookedBy, cursor, limit);
+        }
+
+        public boolean matches(Phone phone) {
+            return (available == null || available == phone.isAvailable())
+                    && (technology == null || technology.equals(phone.getTechnology()));
+        }
+    }
+
+    public record PhonePage(List<Phone> phones, String nextCursor) { }
+
+    public record BatchOperation(String action, String modelName, String bookedBy) {
+        public static final String BOOK = "book";
+        public static final String RETURN = "return";
+    }
+
+    // atomic: either every operation is applied or none is
+    public record BatchRequest(List<BatchOperation> operations, boolean atomic) { }
+
+    public record BatchItemResult(String action, String modelName, Status status, String message) { }
+
+    public record Readiness(boolean ready, int enriched, int toEnrich) { }
+
+    // date in the format of bookingDate, time in epoch millis orders the entries
+    public record HistoryEntry(String date, String type, String modelName, String bookedBy, long time) { }
 }
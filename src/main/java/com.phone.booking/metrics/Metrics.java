@@ -0,0 +1,109 @@
+package com.phone.booking.metrics;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the metrics of one actor system, rendered in the Prometheus text format.
+ * Recording never touches the registry, hot paths keep hold of the metrics they looked up.
+ * Labels are given as name, value pairs.
+ */
+public class Metrics implements Extension {
+
+    public static class Id extends ExtensionId<Metrics> {
+        private static final Id instance = new Id();
+
+        private Id() { }
+
+        @Override
+        public Metrics createExtension(ActorSystem<?> system) {
+            return new Metrics();
+        }
+
+        public static Metrics get(ActorSystem<?> system) {
+            return instance.apply(system);
+        }
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private record Family(String type, String help, Map<String, Object> series) { }
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) series(name, "counter", help, labels, LongAdder::new);
+    }
+
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) series(name, "summary", help, labels, LatencyHistogram::new);
+    }
+
+    // a gauge registered again replaces the previous one, which belongs to a component that is gone
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, "gauge", help).series().put(labelText(labels), value);
+    }
+
+    private Object series(String name, String type, String help, String[] labels, Supplier<Object> create) {
+        return family(name, type, help).series().computeIfAbsent(labelText(labels), l -> create.get());
+    }
+
+    private Family family(String name, String type, String help) {
+        Family family = families.computeIfAbsent(name, n -> new Family(type, help, new ConcurrentHashMap<>()));
+        if (!family.type().equals(type))
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type());
+        return family;
+    }
+
+    private static String labelText(String[] labels) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("labels must be name, value pairs");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            text.append(text.isEmpty() ? "" : ",").append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return text.toString();
+    }
+
+    public String render() {
+        StringBuilder out = new StringBuilder();
+        new TreeMap<>(families).forEach((name, family) -> {
+            out.append("# HELP ").append(name).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type()).append('\n');
+            new TreeMap<>(family.series()).forEach((labels, series) -> {
+                if (series instanceof LongAdder counter) {
+                    sample(out, name, labels, counter.sum());
+                } else if (series instanceof LongSupplier gauge) {
+                    sample(out, name, labels, gauge.getAsLong());
+                } else if (series instanceof LatencyHistogram histogram) {
+                    for (double quantile : QUANTILES)
+                        sample(out, name, withLabel(labels, "quantile=\"" + quantile + '"'),
+                                histogram.quantile(quantile) / 1e9);
+                    sample(out, name + "_sum", labels, histogram.sumNanos() / 1e9);
+                    sample(out, name + "_count", labels, histogram.count());
+                }
+            });
+        });
+        return out.toString();
+    }
+
+    private static String withLabel(String labels, String label) {
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, Object value) {
+        out.append(name);
+        if (!labels.isEmpty())
+            out.append('{').append(labels).append('}');
+        out.append(' ').append(value).append('\n');
+    }
+}
@@ -3,17 +3,24 @@ package com.phone.booking.models;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Builder;
 import lombok.Data;
+import lombok.extern.jackson.Jacksonized;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
+@Jacksonized
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public final class Phone {
     private final String modelName;
     private boolean available;
     private String bookingDate;
     private String bookedBy;
+    // end of the hold of a booking made for a limited time
+    private String holdUntil;
     private String technology;
     private String _2g_bands;
     private String _3g_bands;
     private String _4g_bands;
+    // only set for a model with several units
+    private Integer units;
+    private Integer availableUnits;
 }
@@ -0,0 +1,63 @@
+package com.phone.booking.routes;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the asks to the booking actor that are in flight at once. A request that finds the limit reached is
+ * rejected right away instead of queueing in the actor mailbox until the ask times out.
+ * The in-flight count is the depth of the actor queue as seen by the routes.
+ */
+class AdmissionLimiter {
+
+    private final int limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected;
+
+    AdmissionLimiter(int limit) {
+        this(limit, new LongAdder());
+    }
+
+    // a limit of 0 rejects every ask
+    AdmissionLimiter(int limit, LongAdder rejected) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        this.limit = limit;
+        this.rejected = rejected;
+    }
+
+    /**
+     * @return false when the limit is reached, otherwise the caller must {@link #release} once done
+     */
+    boolean tryAcquire() {
+        if (tryAcquireUncounted())
+            return true;
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * As {@link #tryAcquire}, for a caller that waits for a permit instead of rejecting its request.
+     */
+    boolean tryAcquireUncounted() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit)
+                return false;
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    long rejected() {
+        return rejected.sum();
+    }
+}
@@ -1,21 +1,67 @@
 package com.phone.booking.routes;
 
+import akka.NotUsed;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
 import akka.actor.typed.Scheduler;
 import akka.actor.typed.javadsl.AskPattern;
-import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.marshalling.Marshaller;
+import akka.http.javadsl.marshalling.sse.EventStreamMarshalling;
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpCharsets;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.RequestEntity;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.ETag;
+import akka.http.javadsl.model.headers.EntityTag;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.headers.RetryAfter;
+import akka.http.javadsl.model.sse.ServerSentEvent;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.PathMatchers;
 import akka.http.javadsl.server.Route;
 import akka.http.javadsl.server.directives.RouteAdapter;
+import akka.japi.Pair;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 import com.phone.booking.messages.Commands;
 import com.phone.booking.messages.Messages;
+import com.phone.booking.metrics.LatencyHistogram;
+import com.phone.booking.metrics.Metrics;
+import com.phone.booking.models.Phone;
+import com.phone.booking.store.DeviceInventory;
+import com.phone.booking.store.IdempotencyCache;
+import com.phone.booking.store.InventorySnapshot;
+import com.phone.booking.store.PhoneChangeFeed;
+import com.phone.booking.store.PhoneInventoryView;
+import com.phone.booking.store.PhoneSearchIndex;
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.phone.booking.Status.badRequest;
+import static com.phone.booking.Status.conflict;
+import static com.phone.booking.Status.error;
+import static com.phone.booking.Status.notFound;
+import static com.phone.booking.Status.overloaded;
+import static com.phone.booking.Status.success;
 
 @Slf4j
 public class BookingsRoute extends AllDirectives {
@@ -23,67 +69,523 @@ public class BookingsRoute extends AllDirectives {
     private final ActorRef<Commands.Command> bookingServiceActor;
     private final Duration askTimeout;
     private final Scheduler scheduler;
+    // null when reads always go through the booking actor
+    private final PhoneInventoryView view;
+    private final RenderedBodies renderedBodies;
+    private final RenderedBodies cborBodies;
+    // JSON, or CBOR for clients accepting it
+    private final Marshaller<Object, RequestEntity> marshaller = Formats.marshaller();
+    private final Metrics metrics;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+    private final int maxBatchSize;
+    private final Duration maxHold;
+    // separate limits, so a burst of reads cannot starve bookings and the other way round
+    private final AdmissionLimiter reads;
+    private final AdmissionLimiter writes;
+    private final long retryAfterSeconds;
+    private final Duration pageWait;
+    private final Duration feedKeepAlive;
+    private final Duration historyRange;
+    private final LatencyHistogram readAskLatency;
+    private final LatencyHistogram writeAskLatency;
+    // null in a cluster, where the owners of the partitions deduplicate the keyed writes
+    private final IdempotencyCache<Messages.BookingResponse<?>> idempotency;
+    private final LongAdder idempotentReplays;
+    // asks of detail reads in flight by key, concurrent identical reads share the one ask
+    private final Map<String, CompletableFuture<Messages.BookingResponse<?>>> inFlightReads = new ConcurrentHashMap<>();
+    private final LongAdder coalescedReads;
+
+    private static final Set<String> QUERY_PARAMETERS = Set.of("available", "technology", "bookedBy", "cursor", "limit");
+    private static final ContentType NDJSON =
+            ContentTypes.create(MediaTypes.applicationWithFixedCharset("x-ndjson", HttpCharsets.UTF_8));
+
+    private record StreamPosition(String cursor, boolean first, boolean exhausted) { }
 
     public BookingsRoute(ActorSystem<?> system, ActorRef<Commands.Command> bookingServiceActor) {
+        this(system, bookingServiceActor, null);
+    }
+
+    public BookingsRoute(ActorSystem<?> system, ActorRef<Commands.Command> bookingServiceActor, PhoneInventoryView view) {
         system.log().debug("Initializing routes");
         this.bookingServiceActor = bookingServiceActor;
+        this.view = view;
         scheduler = system.scheduler();
         askTimeout = system.settings().config().getDuration("my-app.routes.ask-timeout");
+        defaultPageSize = system.settings().config().getInt("my-app.routes.page.default-limit");
+        maxPageSize = system.settings().config().getInt("my-app.routes.page.max-limit");
+        maxBatchSize = system.settings().config().getInt("my-app.routes.max-batch-size");
+        maxHold = system.settings().config().getDuration("my-app.booking.holds.max");
+
+        metrics = Metrics.Id.get(system);
+        String epoch = view == null ? "" : view.epoch();
+        renderedBodies = new RenderedBodies(epoch, metrics.histogram("json_render_seconds",
+                "Time to render a cached JSON body of the read endpoints"));
+        cborBodies = new RenderedBodies(Formats.CBOR_MAPPER, Formats.CBOR_CONTENT_TYPE, epoch, ".cbor",
+                metrics.histogram("cbor_render_seconds", "Time to render a cached CBOR body of the read endpoints"));
+        reads = new AdmissionLimiter(system.settings().config().getInt("my-app.routes.admission.max-reads"),
+                metrics.counter("admission_rejected_total", "Requests rejected with 503", "kind", "read"));
+        writes = new AdmissionLimiter(system.settings().config().getInt("my-app.routes.admission.max-writes"),
+                metrics.counter("admission_rejected_total", "Requests rejected with 503", "kind", "write"));
+        // asks in flight are queued in, or being handled by, the booking actor
+        metrics.gauge("booking_queue_depth", "Asks to the booking actor in flight", reads::inFlight, "kind", "read");
+        metrics.gauge("booking_queue_depth", "Asks to the booking actor in flight", writes::inFlight, "kind", "write");
+        readAskLatency = metrics.histogram("booking_ask_seconds", "Time from ask to reply of the booking actor", "kind", "read");
+        writeAskLatency = metrics.histogram("booking_ask_seconds", "Time from ask to reply of the booking actor", "kind", "write");
+        idempotency = system.settings().config().getBoolean("my-app.cluster.enabled") ? null
+                : new IdempotencyCache<>(system.settings().config().getInt("my-app.routes.idempotency.max-entries"),
+                system.settings().config().getDuration("my-app.routes.idempotency.ttl"));
+        idempotentReplays = metrics.counter("idempotent_replays_total", "Writes answered from the Idempotency-Key cache");
+        coalescedReads = metrics.counter("coalesced_reads_total", "Reads answered by the ask of an identical read in flight");
+        historyRange = system.settings().config().getDuration("my-app.history.default-range");
+        feedKeepAlive = system.settings().config().getDuration("my-app.feed.keep-alive");
+        retryAfterSeconds = Math.max(1, system.settings().config().getDuration("my-app.routes.admission.retry-after").toSeconds());
+        pageWait = system.settings().config().getDuration("my-app.routes.admission.page-wait");
     }
 
     public Route routes() {
+        return concat(phonesRoutes(), usersRoutes());
+    }
+
+    private Route phonesRoutes() {
+        RouteMetrics list = new RouteMetrics(metrics, "list");
+        RouteMetrics book = new RouteMetrics(metrics, "book");
+        RouteMetrics hold = new RouteMetrics(metrics, "hold");
+        RouteMetrics batch = new RouteMetrics(metrics, "batch");
+        RouteMetrics stream = new RouteMetrics(metrics, "stream");
+        RouteMetrics search = new RouteMetrics(metrics, "search");
+        RouteMetrics changes = new RouteMetrics(metrics, "changes");
+        RouteMetrics giveBack = new RouteMetrics(metrics, "return");
+        RouteMetrics details = new RouteMetrics(metrics, "details");
         return pathPrefix("phones", () ->
                 concat(
                         pathEndOrSingleSlash(() ->
                                 concat(
-                                        get(() -> onSuccess(getAllPhones(), this::handleResponse)
+                                        get(() -> timed(list, () -> parameterMap(params ->
+                                                optionalHeaderValueByName("If-None-Match", ifNoneMatch ->
+                                                        listPhones(params, ifNoneMatch))))
                                         )
                                 )
                         ),
                         path("book", () ->
-                                    put(() ->
-                                            entity(Jackson.unmarshaller(Messages.BookingRequest.class), request ->
-                                                    onSuccess(bookPhone(request), this::handleResponse)
-                                            )
-                                    )
+                                    put(() -> timed(book, () ->
+                                            entity(Formats.unmarshaller(Messages.BookingRequest.class), this::bookPhone)
+                                    ))
                                 ),
+                        path("hold", () ->
+                                put(() -> timed(hold, () ->
+                                        entity(Formats.unmarshaller(Messages.HoldRequest.class), this::extendHold)
+                                ))
+                        ),
+                        path("batch", () ->
+                                put(() -> timed(batch, () ->
+                                        entity(Formats.unmarshaller(Messages.BatchRequest.class), this::batchBooking)
+                                ))
+                        ),
+                        path("stream", () ->
+                                get(() -> timed(stream, () -> parameterMap(this::streamPhones)))
+                        ),
+                        path("search", () ->
+                                get(() -> timed(search, () -> parameterOptional("q", q ->
+                                        parameterOptional("limit", limit -> searchPhones(q, limit)))))
+                        ),
+                        path("changes", () ->
+                                get(() -> timed(changes, () -> optionalHeaderValueByName("Last-Event-ID", lastEventId ->
+                                        parameterOptional("since", since -> changes(lastEventId.or(() -> since))))))
+                        ),
                         path(PathMatchers.segment("return").slash(PathMatchers.segment()), modelName ->
-                                put(() ->
-                                        onSuccess(returnPhone(modelName), this::handleResponse)
-                                )),
+                                put(() -> timed(giveBack, () ->
+                                        write(List.of("return", modelName), key -> returnPhone(modelName, key))
+                                ))),
                         path(PathMatchers.segment(), modelName ->
-                                get(() -> onSuccess(getPhoneDetails(modelName), this::handleResponse)
+                                get(() -> timed(details, () -> optionalHeaderValueByName("If-None-Match", ifNoneMatch ->
+                                        phoneDetails(modelName, ifNoneMatch)))
                                 )
                         )
                 )
         );
     }
 
+    private Route usersRoutes() {
+        RouteMetrics userPhones = new RouteMetrics(metrics, "userPhones");
+        RouteMetrics userHistory = new RouteMetrics(metrics, "userHistory");
+        return pathPrefix(PathMatchers.segment("users").slash(PathMatchers.segment()), bookedBy ->
+                concat(
+                        path("phones", () ->
+                                get(() -> timed(userPhones, () ->
+                                        admitted(reads, () -> AskPattern.ask(bookingServiceActor,
+                                                ref -> new Commands.GetUserPhones(bookedBy, ref), askTimeout, scheduler))
+                                ))
+                        ),
+                        path("history", () ->
+                                get(() -> timed(userHistory, () ->
+                                        parameterOptional("from", from -> parameterOptional("to", to ->
+                                                userHistory(bookedBy, from, to)))
+                                ))
+                        )
+                )
+        );
+    }
+
+    // Latency until the response head is ready, and responses by status code. For a stream that
+    // excludes sending its body.
+    private Route timed(RouteMetrics route, Supplier<Route> inner) {
+        return extract(context -> System.nanoTime(), start ->
+                mapResponse(response -> {
+                    route.record(start, response.status().intValue());
+                    return response;
+                }, inner));
+    }
+
+    private Route listPhones(Map<String, String> params, Optional<String> ifNoneMatch) {
+        if (params.keySet().stream().noneMatch(QUERY_PARAMETERS::contains))
+            return allPhones(ifNoneMatch);
+        Messages.PhoneQuery query;
+        try {
+            query = parseQuery(params, defaultPageSize);
+        } catch (IllegalArgumentException exception) {
+            return handleResponse(new Messages.BookingResponse<>(badRequest, exception.getMessage()));
+        }
+        return admitted(reads, () -> queryPhones(query));
+    }
+
+    private Route bookPhone(Messages.BookingRequest request) {
+        if (request.holdSeconds() != null && !validHold(request.holdSeconds()))
+            return handleResponse(new Messages.BookingResponse<>(badRequest, invalidHoldMessage()));
+        Duration hold = request.holdSeconds() == null ? null : Duration.ofSeconds(request.holdSeconds());
+        return write(request, key -> AskPattern.ask(bookingServiceActor, ref ->
+                new Commands.BookPhone(request.modelName(), request.bookedBy(), hold, key, ref), askTimeout, scheduler));
+    }
+
+    private Route extendHold(Messages.HoldRequest request) {
+        if (request.modelName() == null || request.bookedBy() == null)
+            return handleResponse(new Messages.BookingResponse<>(badRequest, "modelName and bookedBy are required."));
+        if (request.holdSeconds() == null || !validHold(request.holdSeconds()))
+            return handleResponse(new Messages.BookingResponse<>(badRequest, invalidHoldMessage()));
+        return write(request, key -> AskPattern.ask(bookingServiceActor, ref ->
+                new Commands.ExtendHold(request.modelName(), request.bookedBy(), Duration.ofSeconds(request.holdSeconds()), key, ref),
+                askTimeout, scheduler));
+    }
+
+    private boolean validHold(long holdSeconds) {
+        return holdSeconds > 0 && holdSeconds <= maxHold.toSeconds();
+    }
+
+    private String invalidHoldMessage() {
+        return "holdSeconds must be between 1 and " + maxHold.toSeconds() + ".";
+    }
+
+    // from and to are local date times like bookingDate, to defaults to now and from to default-range before it
+    private Route userHistory(String bookedBy, Optional<String> from, Optional<String> to) {
+        long toMillis;
+        long fromMillis;
+        try {
+            toMillis = to.map(DeviceInventory::parseDate).orElseGet(System::currentTimeMillis);
+            fromMillis = from.map(DeviceInventory::parseDate).orElse(toMillis - historyRange.toMillis());
+        } catch (DateTimeParseException exception) {
+            return handleResponse(new Messages.BookingResponse<>(badRequest, "from and to must be dates like 2023-01-01T10:00."));
+        }
+        if (fromMillis > toMillis)
+            return handleResponse(new Messages.BookingResponse<>(badRequest, "from must not be after to."));
+        return admitted(reads, () -> AskPattern.ask(bookingServiceActor,
+                ref -> new Commands.GetUserHistory(bookedBy, fromMillis, toMillis, ref), askTimeout, scheduler));
+    }
+
+    private Route batchBooking(Messages.BatchRequest request) {
+        List<Messages.BatchOperation> operations = request.operations();
+        if (operations == null || operations.isEmpty() || operations.size() > maxBatchSize)
+            return handleResponse(new Messages.BookingResponse<>(badRequest,
+                    "A batch must contain between 1 and " + maxBatchSize + " operations."));
+        if (operations.stream().anyMatch(operation -> operation == null || operation.modelName() == null))
+            return handleResponse(new Messages.BookingResponse<>(badRequest, "Every operation needs a modelName."));
+        return write(request, key -> AskPattern.ask(bookingServiceActor,
+                ref -> new Commands.BatchBooking(operations, request.atomic(), key, ref), askTimeout, scheduler));
+    }
+
+    // NDJSON, one phone per line; pages are only asked for as fast as the client reads them.
+    // A stream has a single page ask in flight at a time and every page ask holds a read permit. The first page
+    // is asked right away, so a stream is rejected when reads are at their limit; later pages wait for a permit,
+    // at most for page-wait and only while the stream runs.
+    private Route streamPhones(Map<String, String> params) {
+        Messages.PhoneQuery query;
+        try {
+            query = parseQuery(params, maxPageSize);
+        } catch (IllegalArgumentException exception) {
+            return handleResponse(new Messages.BookingResponse<>(badRequest, exception.getMessage()));
+        }
+        if (!reads.tryAcquire())
+            return overloaded();
+        CompletionStage<Messages.BookingResponse<?>> firstPage = timedAsk(reads, () -> queryPhones(query));
+        AtomicBoolean terminated = new AtomicBoolean();
+        Source<ByteString, NotUsed> lines = Source.<StreamPosition, List<Phone>>unfoldAsync(
+                        new StreamPosition(query.cursor(), true, false), position ->
+                        position.exhausted()
+                                ? CompletableFuture.completedFuture(Optional.empty())
+                                : (position.first() ? firstPage : admittedPage(query.withCursor(position.cursor()),
+                                        System.nanoTime() + pageWait.toNanos(), terminated))
+                                .thenApply(response -> {
+                                    if (!(response.data() instanceof Messages.PhonePage page))
+                                        throw new IllegalStateException("Failed to query phones: " + response.data());
+                                    StreamPosition next = new StreamPosition(page.nextCursor(), false, page.nextCursor() == null);
+                                    return Optional.of(Pair.create(next, page.phones()));
+                                }))
+                .mapConcat(phones -> phones)
+                .map(renderedBodies::line)
+                .watchTermination((notUsed, done) -> {
+                    done.whenComplete((ignored, exception) -> terminated.set(true));
+                    return notUsed;
+                });
+        return complete(HttpResponse.create().withEntity(HttpEntities.createChunked(NDJSON, lines)));
+    }
+
+    // the response has already started, so a page waits for a read permit rather than failing the stream at once
+    private CompletionStage<Messages.BookingResponse<?>> admittedPage(Messages.PhoneQuery query, long deadline,
+                                                                    AtomicBoolean terminated) {
+        if (terminated.get())
+            return CompletableFuture.failedFuture(new IllegalStateException("The stream of phones was cancelled."));
+        if (reads.tryAcquireUncounted())
+            return timedAsk(reads, () -> queryPhones(query));
+        if (System.nanoTime() - deadline >= 0)
+            return CompletableFuture.failedFuture(new IllegalStateException("No read permit for the next page within " + pageWait + "."));
+        return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(retryAfterSeconds, TimeUnit.SECONDS))
+                .thenCompose(ignored -> admittedPage(query, deadline, terminated));
+    }
+
+    // Served from the published search indexes and snapshots, the actor is only asked until they are published
+    private Route searchPhones(Optional<String> q, Optional<String> limitParam) {
+        if (q.filter(query -> !query.isBlank()).isEmpty())
+            return handleResponse(new Messages.BookingResponse<>(badRequest, "q must not be empty"));
+        int limit;
+        try {
+            limit = limitParam.map(Integer::parseInt).orElse(defaultPageSize);
+        } catch (NumberFormatException exception) {
+            limit = -1;
+        }
+        if (limit < 1 || limit > maxPageSize)
+            return handleResponse(new Messages.BookingResponse<>(badRequest, "limit must be between 1 and " + maxPageSize));
+        String query = q.get();
+        int pageSize = limit;
+        List<PhoneSearchIndex> indexes = view == null ? null : view.searchIndexes();
+        List<InventorySnapshot> snapshots = view == null ? null : view.snapshots();
+        if (indexes == null || snapshots == null)
+            return admitted(reads, () -> AskPattern.ask(bookingServiceActor,
+                    ref -> new Commands.SearchPhones(query, pageSize, ref), askTimeout, scheduler));
+        List<Phone> phones = PhoneSearchIndex.search(indexes, query, limit).stream()
+                .map(model -> view.snapshotOf(model).phones().get(model))
+                .toList();
+        return complete(StatusCodes.OK, new Messages.BookingResponse<>(success, phones), marshaller);
+    }
+
+    // Server-sent events, one per changed phone, with the full phone as data. A client that reads slower than
+    // phones change gets only the latest change of each phone it has not read yet, so its buffer is bounded by
+    // the number of phones. The id of the last event resumes a reconnect, without one it starts with every phone.
+    private Route changes(Optional<String> lastEventId) {
+        PhoneChangeFeed feed = view == null ? null : view.changes();
+        if (feed == null)
+            return handleResponse(new Messages.BookingResponse<>(notFound, "The change feed is disabled."));
+        String epoch = feed.epoch() + "-";
+        long after = lastEventId.filter(id -> id.startsWith(epoch) && id.length() > epoch.length())
+                .map(id -> {
+                    try {
+                        return Long.parseLong(id.substring(epoch.length()));
+                    } catch (NumberFormatException exception) {
+                        return -1L;
+                    }
+                })
+                .orElse(-1L);
+        Source<ServerSentEvent, NotUsed> events = feed.changesAfter(after)
+                .conflateWithSeed(change -> {
+                    Map<String, PhoneChangeFeed.Change> pending = new LinkedHashMap<>();
+                    pending.put(change.phone().getModelName(), change);
+                    return pending;
+                }, (pending, change) -> {
+                    // moved to the end, so the events stay in the order of their ids
+                    pending.remove(change.phone().getModelName());
+                    pending.put(change.phone().getModelName(), change);
+                    return pending;
+                })
+                .mapConcat(Map::values)
+                .map(change -> ServerSentEvent.create(renderedBodies.json(change.phone()), "phone", epoch + change.seqNr()))
+                .keepAlive(feedKeepAlive, ServerSentEvent::heartbeat);
+        return completeOK(events, EventStreamMarshalling.toEventStream());
+    }
+
+    private Messages.PhoneQuery parseQuery(Map<String, String> params, int defaultLimit) {
+        String available = params.get("available");
+        if (available != null && !available.equals("true") && !available.equals("false"))
+            throw new IllegalArgumentException("available must be true or false");
+        int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : defaultLimit;
+        if (limit < 1 || limit > maxPageSize)
+            throw new IllegalArgumentException("limit must be between 1 and " + maxPageSize);
+        return new Messages.PhoneQuery(available == null ? null : Boolean.valueOf(available),
+                params.get("technology"), params.get("bookedBy"), params.get("cursor"), limit);
+    }
+
+    // Reads are served from the published snapshots, the actor is only asked until they are published
+    private Route allPhones(Optional<String> ifNoneMatch) {
+        List<InventorySnapshot> snapshots = view == null ? null : view.snapshots();
+        if (snapshots == null)
+            return coalesced("all", this::getAllPhones);
+        return optionalHeaderValueByName("Accept", accept -> {
+            RenderedBodies bodies = renderedBodies(accept);
+            return completeRendered(bodies, bodies.allPhones(snapshots), ifNoneMatch);
+        });
+    }
+
+    private Route phoneDetails(String modelName, Optional<String> ifNoneMatch) {
+        InventorySnapshot snapshot = view == null ? null : view.snapshotOf(modelName);
+        if (snapshot == null)
+            return coalesced("details:" + modelName, () -> getPhoneDetails(modelName));
+        return optionalHeaderValueByName("Accept", accept -> {
+            RenderedBodies bodies = renderedBodies(accept);
+            RenderedBodies.Rendered rendered = bodies.phone(modelName, snapshot);
+            if (rendered == null)
+                return handleResponse(new Messages.BookingResponse<>(notFound, "Phone not found."));
+            return completeRendered(bodies, rendered, ifNoneMatch);
+        });
+    }
+
+    private RenderedBodies renderedBodies(Optional<String> accept) {
+        return Formats.prefersCbor(accept) ? cborBodies : renderedBodies;
+    }
+
+    // the permit is held until the actor replied or the ask timed out
+    private Route admitted(AdmissionLimiter limiter, Supplier<CompletionStage<Messages.BookingResponse<?>>> ask) {
+        if (!limiter.tryAcquire())
+            return overloaded();
+        return onSuccess(timedAsk(limiter, ask), this::handleResponse);
+    }
+
+    // asks with a permit already acquired, releasing it once the actor replied or the ask timed out
+    private CompletionStage<Messages.BookingResponse<?>> timedAsk(AdmissionLimiter limiter,
+                                                               Supplier<CompletionStage<Messages.BookingResponse<?>>> ask) {
+        LatencyHistogram latency = limiter == reads ? readAskLatency : writeAskLatency;
+        long start = System.nanoTime();
+        return ask.get().whenComplete((result, failure) -> {
+            latency.recordSince(start);
+            limiter.release();
+        });
+    }
+
+    // A write sent with an Idempotency-Key is asked once, a retry with the same key and request gets the
+    // response of the first one without reaching the booking actor, even while it is still in flight.
+    // Responses that did not apply the write, an overloaded actor or a failed ask, free the key for a retry.
+    // In a cluster the key is sent along with the write, for the owner of its partition to do the same.
+    private Route write(Object request, Function<String, CompletionStage<Messages.BookingResponse<?>>> ask) {
+        return optionalHeaderValueByName("Idempotency-Key", key -> key.isEmpty()
+                ? admitted(writes, () -> ask.apply(null))
+                : idempotency == null ? admitted(writes, () -> ask.apply(key.get()))
+                : idempotent(key.get(), request, () -> ask.apply(null)));
+    }
+
+    private Route idempotent(String key, Object request, Supplier<CompletionStage<Messages.BookingResponse<?>>> ask) {
+        CompletableFuture<Messages.BookingResponse<?>> response = new CompletableFuture<>();
+        IdempotencyCache.Cached<Messages.BookingResponse<?>> cached = idempotency.putIfAbsent(key, request, response);
+        if (cached != null) {
+            if (!cached.request().equals(request))
+                return handleResponse(new Messages.BookingResponse<>(conflict, "Idempotency-Key was used for a different request."));
+            idempotentReplays.increment();
+            return onSuccess(cached.response(), this::handleResponse);
+        }
+        if (!writes.tryAcquire()) {
+            idempotency.remove(key, response);
+            return overloaded();
+        }
+        timedAsk(writes, ask).whenComplete((result, failure) -> {
+            if (failure != null || result.status() == overloaded || result.status() == error)
+                idempotency.remove(key, response);
+            if (failure != null)
+                response.completeExceptionally(failure);
+            else
+                response.complete(result);
+        });
+        return onSuccess(response, this::handleResponse);
+    }
+
+    // Identical reads arriving while one is asked share its response, so only the first one takes a permit
+    private Route coalesced(String key, Supplier<CompletionStage<Messages.BookingResponse<?>>> ask) {
+        CompletableFuture<Messages.BookingResponse<?>> response = new CompletableFuture<>();
+        CompletableFuture<Messages.BookingResponse<?>> inFlight = inFlightReads.putIfAbsent(key, response);
+        if (inFlight != null) {
+            coalescedReads.increment();
+            return onSuccess(inFlight, this::handleResponse);
+        }
+        if (!reads.tryAcquire()) {
+            inFlightReads.remove(key, response);
+            return overloaded();
+        }
+        timedAsk(reads, ask).whenComplete((result, failure) -> {
+            // removed before completing, so a read arriving after the response asks again
+            inFlightReads.remove(key, response);
+            if (failure != null)
+                response.completeExceptionally(failure);
+            else
+                response.complete(result);
+        });
+        return onSuccess(response, this::handleResponse);
+    }
+
+    private Route overloaded() {
+        log.debug("Rejecting request, booking actor is at its admission limit");
+        return respondWithHeader(RetryAfter.create(retryAfterSeconds), () ->
+                complete(StatusCodes.SERVICE_UNAVAILABLE,
+                        new Messages.BookingResponse<>(overloaded, "Too many requests, please retry later."),
+                        marshaller));
+    }
+
+    // the body depends on the Accept header, so caches must not hand a JSON body to a CBOR client
+    private Route completeRendered(RenderedBodies bodies, RenderedBodies.Rendered rendered, Optional<String> ifNoneMatch) {
+        ETag etag = ETag.create(EntityTag.create(rendered.version(), false));
+        RawHeader vary = RawHeader.create("Vary", "Accept");
+        if (ifNoneMatch.filter(tags -> matches(tags, rendered.version())).isPresent())
+            return complete(HttpResponse.create().withStatus(StatusCodes.NOT_MODIFIED).addHeader(etag).addHeader(vary));
+        return complete(HttpResponse.create()
+                .addHeader(etag)
+                .addHeader(vary)
+                .withEntity(bodies.contentType(), rendered.body()));
+    }
+
+    // If-None-Match holds "*" or a comma separated list of possibly weak entity tags
+    private static boolean matches(String ifNoneMatch, String version) {
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*"))
+                return true;
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals("\"" + version + "\""))
+                return true;
+        }
+        return false;
+    }
+
     private CompletionStage<Messages.BookingResponse<?>> getAllPhones() {
         log.debug("getAllPhones");
         return AskPattern.ask(bookingServiceActor, Commands.GetAllPhones::new, askTimeout, scheduler);
     }
 
-    private CompletionStage<Messages.BookingResponse<?>> getPhoneDetails(String modelName) {
-        return AskPattern.ask(bookingServiceActor, ref -> new Commands.GetPhoneDetails(modelName, ref), askTimeout, scheduler);
+    private CompletionStage<Messages.BookingResponse<?>> queryPhones(Messages.PhoneQuery query) {
+        return AskPattern.ask(bookingServiceActor, ref -> new Commands.QueryPhones(query, ref), askTimeout, scheduler);
     }
 
-    private CompletionStage<Messages.BookingResponse<?>> bookPhone(Messages.BookingRequest request) {
-        return AskPattern.ask(bookingServiceActor, ref ->
-                new Commands.BookPhone(request.modelName(), request.bookedBy(), ref), askTimeout, scheduler);
+    private CompletionStage<Messages.BookingResponse<?>> getPhoneDetails(String modelName) {
+        return AskPattern.ask(bookingServiceActor, ref -> new Commands.GetPhoneDetails(modelName, ref), askTimeout, scheduler);
     }
 
-    private CompletionStage<Messages.BookingResponse<?>> returnPhone(String modelName) {
+    private CompletionStage<Messages.BookingResponse<?>> returnPhone(String modelName, String idempotencyKey) {
 
-        return AskPattern.ask(bookingServiceActor, ref -> new Commands.ReturnPhone(modelName, ref), askTimeout, scheduler);
+        return AskPattern.ask(bookingServiceActor, ref -> new Commands.ReturnPhone(modelName, idempotencyKey, ref),
+                askTimeout, scheduler);
     }
 
     private RouteAdapter handleResponse(Messages.BookingResponse<?> bookingResponse) {
         return switch (bookingResponse.status()) {
-            case success -> complete(StatusCodes.OK, bookingResponse, Jackson.marshaller());
-            case notFound -> complete(StatusCodes.NOT_FOUND, bookingResponse, Jackson.marshaller());
-            case unavailable -> complete(StatusCodes.BAD_REQUEST, bookingResponse, Jackson.marshaller());
-            default -> complete(StatusCodes.INTERNAL_SERVER_ERROR, bookingResponse, Jackson.marshaller());
+            case success -> complete(StatusCodes.OK, bookingResponse, marshaller);
+            case notFound -> complete(StatusCodes.NOT_FOUND, bookingResponse, marshaller);
+            case unavailable, badRequest -> complete(StatusCodes.BAD_REQUEST, bookingResponse, marshaller);
+            case overloaded -> complete(StatusCodes.SERVICE_UNAVAILABLE, bookingResponse, marshaller);
+            case conflict -> complete(StatusCodes.UNPROCESSABLE_ENTITY, bookingResponse, marshaller);
+            default -> complete(StatusCodes.INTERNAL_SERVER_ERROR, bookingResponse, marshaller);
         };
     }
 
@@ -0,0 +1,115 @@
+package com.phone.booking.routes;
+
+import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.marshalling.Marshaller;
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpEntity;
+import akka.http.javadsl.model.MediaType;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.RequestEntity;
+import akka.http.javadsl.unmarshalling.Unmarshaller;
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Representations of the booking API bodies. JSON by default, CBOR for clients asking for it with
+ * Accept: application/cbor or sending it as Content-Type. CBOR encodes the same Jackson data model in binary,
+ * so bodies are smaller and cheaper to write and to parse than JSON text.
+ */
+final class Formats {
+
+    static final MediaType.Binary CBOR = MediaTypes.applicationBinary("cbor", MediaType.Compressible, "cbor");
+    static final ContentType.Binary CBOR_CONTENT_TYPE = ContentTypes.create(CBOR);
+
+    // same output as Jackson.marshaller(): properties in alphabetical order
+    static final ObjectMapper JSON_MAPPER = JsonMapper.builder()
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .build();
+    static final ObjectMapper CBOR_MAPPER = CBORMapper.builder()
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .build();
+
+    private Formats() {
+    }
+
+    /**
+     * JSON or CBOR as negotiated with the Accept header, JSON when both are equally acceptable.
+     */
+    static <T> Marshaller<T, RequestEntity> marshaller() {
+        return Marshaller.oneOf(Jackson.marshaller(),
+                Marshaller.<T, RequestEntity>withFixedContentType(CBOR_CONTENT_TYPE, value ->
+                        HttpEntities.create(CBOR_CONTENT_TYPE, CBOR_MAPPER.writeValueAsBytes(value))));
+    }
+
+    /**
+     * A JSON or CBOR request body, by its Content-Type.
+     */
+    static <T> Unmarshaller<HttpEntity, T> unmarshaller(Class<T> type) {
+        return Unmarshaller.firstOf(Jackson.unmarshaller(type),
+                Unmarshaller.forMediaType(CBOR, Unmarshaller.entityToByteString())
+                        .thenApply(bytes -> fromCbor(bytes, type)));
+    }
+
+    private static <T> T fromCbor(ByteString bytes, Class<T> type) {
+        try {
+            return CBOR_MAPPER.readValue(bytes.toArray(), type);
+        } catch (IOException exception) {
+            throw new IllegalArgumentException("Cannot unmarshal CBOR as " + type.getSimpleName(), exception);
+        }
+    }
+
+    /**
+     * Whether a response to the Accept header should be CBOR rather than JSON, by the same rule as
+     * {@link #marshaller()}: each type gets the quality of the most specific media range matching it.
+     */
+    static boolean prefersCbor(Optional<String> accept) {
+        if (accept.isEmpty())
+            return false;
+        float[] json = {0, -1};
+        float[] cbor = {0, -1};
+        for (String range : accept.get().split(",")) {
+            String[] parts = range.split(";");
+            String mediaRange = parts[0].trim().toLowerCase(Locale.ROOT);
+            float quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2));
+                    } catch (NumberFormatException exception) {
+                        quality = 0;
+                    }
+                }
+            }
+            match(json, mediaRange, "application/json", quality);
+            match(cbor, mediaRange, "application/cbor", quality);
+        }
+        return cbor[0] > json[0];
+    }
+
+    // quality[0] is the quality of the most specific matching range so far, quality[1] its specificity
+    private static void match(float[] quality, String mediaRange, String mediaType, float rangeQuality) {
+        int specificity;
+        if (mediaRange.equals(mediaType))
+            specificity = 2;
+        else if (mediaRange.equals("application/*"))
+            specificity = 1;
+        else if (mediaRange.equals("*/*"))
+            specificity = 0;
+        else
+            return;
+        if (specificity > quality[1] || specificity == quality[1] && rangeQuality > quality[0]) {
+            quality[0] = rangeQuality;
+            quality[1] = specificity;
+        }
+    }
+}
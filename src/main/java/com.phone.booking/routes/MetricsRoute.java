@@ -0,0 +1,26 @@
+package com.phone.booking.routes;
+
+import akka.actor.typed.ActorSystem;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import com.phone.booking.metrics.Metrics;
+
+/**
+ * GET /metrics in the Prometheus text format.
+ */
+public class MetricsRoute extends AllDirectives {
+
+    private final Metrics metrics;
+
+    public MetricsRoute(ActorSystem<?> system) {
+        metrics = Metrics.Id.get(system);
+    }
+
+    public Route routes() {
+        return path("metrics", () ->
+                get(() -> complete(HttpEntities.create(ContentTypes.TEXT_PLAIN_UTF8, metrics.render())))
+        );
+    }
+}
@@ -0,0 +1,31 @@
+package com.phone.booking.routes;
+
+import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import com.phone.booking.messages.Messages;
+import com.phone.booking.store.PhoneInventoryView;
+
+/**
+ * GET /ready: 200 once the startup enrichment is done and the inventory is published, 503 with the
+ * enrichment progress until then.
+ */
+public class ReadinessRoute extends AllDirectives {
+
+    private final PhoneInventoryView view;
+
+    public ReadinessRoute(PhoneInventoryView view) {
+        this.view = view;
+    }
+
+    public Route routes() {
+        return path("ready", () ->
+                get(() -> {
+                    Messages.Readiness readiness = new Messages.Readiness(view.isReady(), view.enriched(), view.toEnrich());
+                    return complete(readiness.ready() ? StatusCodes.OK : StatusCodes.SERVICE_UNAVAILABLE,
+                            readiness, Jackson.marshaller());
+                })
+        );
+    }
+}
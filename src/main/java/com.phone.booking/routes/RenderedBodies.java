@@ -0,0 +1,107 @@
+package com.phone.booking.routes;
+
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.ContentTypes;
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phone.booking.messages.Messages;
+import com.phone.booking.metrics.LatencyHistogram;
+import com.phone.booking.models.Phone;
+import com.phone.booking.store.InventorySnapshot;
+import com.phone.booking.store.PhoneInventoryView;
+
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.phone.booking.Status.success;
+
+/**
+ * Bodies of the read endpoints in one format, rendered once per published inventory version and reused until
+ * the version changes. The version, prefixed by the epoch of the view and suffixed by the format unless JSON,
+ * doubles as the entity tag of the response.
+ */
+class RenderedBodies {
+
+    record Rendered(String version, ByteString body) { }
+
+    private static final ByteString NEWLINE = ByteString.fromString("\n");
+
+    private final ObjectMapper mapper;
+    private final ContentType contentType;
+    private final String tagPrefix;
+    private final String tagSuffix;
+    private final AtomicReference<Rendered> allPhones = new AtomicReference<>();
+    private final Map<String, Rendered> phones = new ConcurrentHashMap<>();
+    private final LatencyHistogram renderLatency;
+
+    RenderedBodies(String epoch, LatencyHistogram renderLatency) {
+        this(Formats.JSON_MAPPER, ContentTypes.APPLICATION_JSON, epoch, "", renderLatency);
+    }
+
+    /**
+     * @param epoch {@link PhoneInventoryView#epoch()}, the versions alone repeat after a restart and across nodes
+     */
+    RenderedBodies(ObjectMapper mapper, ContentType contentType, String epoch, String tagSuffix,
+                   LatencyHistogram renderLatency) {
+        this.mapper = mapper;
+        this.contentType = contentType;
+        tagPrefix = epoch + "-";
+        this.tagSuffix = tagSuffix;
+        this.renderLatency = renderLatency;
+    }
+
+    ContentType contentType() {
+        return contentType;
+    }
+
+    Rendered allPhones(List<InventorySnapshot> snapshots) {
+        String version = tagPrefix + PhoneInventoryView.version(snapshots) + tagSuffix;
+        Rendered current = allPhones.get();
+        if (current != null && current.version().equals(version))
+            return current;
+        // concurrent renders of the same version produce the same bytes, the last one simply wins
+        Rendered rendered = new Rendered(version,
+                render(new Messages.BookingResponse<>(success, PhoneInventoryView.phones(snapshots))));
+        allPhones.set(rendered);
+        return rendered;
+    }
+
+    /**
+     * @return null when the snapshot does not hold the model
+     */
+    Rendered phone(String modelName, InventorySnapshot snapshot) {
+        String version = tagPrefix + snapshot.version() + tagSuffix;
+        Rendered current = phones.get(modelName);
+        if (current != null && current.version().equals(version))
+            return current;
+        Phone phone = snapshot.phones().get(modelName);
+        if (phone == null)
+            return null;
+        Rendered rendered = new Rendered(version, render(new Messages.BookingResponse<>(success, phone)));
+        phones.put(modelName, rendered);
+        return rendered;
+    }
+
+    String json(Phone phone) {
+        return render(phone).utf8String();
+    }
+
+    ByteString line(Phone phone) {
+        return render(phone).concat(NEWLINE);
+    }
+
+    private ByteString render(Object value) {
+        long start = System.nanoTime();
+        try {
+            return ByteString.fromArrayUnsafe(mapper.writeValueAsBytes(value));
+        } catch (JsonProcessingException exception) {
+            throw new UncheckedIOException(exception);
+        } finally {
+            renderLatency.recordSince(start);
+        }
+    }
+}
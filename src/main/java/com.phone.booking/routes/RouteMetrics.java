@@ -0,0 +1,51 @@
+package com.phone.booking.routes;
+
+import com.phone.booking.metrics.LatencyHistogram;
+import com.phone.booking.metrics.Metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and responses by status code of one route, looked up once when the routes are built.
+ * The counter of a status code is taken from the registry on its first response and kept by code after that.
+ */
+class RouteMetrics {
+
+    private static final int FIRST_STATUS = 100;
+    private static final int LAST_STATUS = 599;
+
+    private final Metrics metrics;
+    private final String route;
+    private final LatencyHistogram latency;
+    // indexed by status code - FIRST_STATUS
+    private final AtomicReferenceArray<LongAdder> responses = new AtomicReferenceArray<>(LAST_STATUS - FIRST_STATUS + 1);
+
+    RouteMetrics(Metrics metrics, String route) {
+        this.metrics = metrics;
+        this.route = route;
+        latency = metrics.histogram("http_request_duration_seconds", "Time to handle a request", "route", route);
+    }
+
+    void record(long start, int status) {
+        latency.recordSince(start);
+        responses(status).increment();
+    }
+
+    // threads racing on a first response get the same counter from the registry
+    private LongAdder responses(int status) {
+        if (status < FIRST_STATUS || status > LAST_STATUS)
+            return counter(status);
+        LongAdder counter = responses.get(status - FIRST_STATUS);
+        if (counter == null) {
+            counter = counter(status);
+            responses.set(status - FIRST_STATUS, counter);
+        }
+        return counter;
+    }
+
+    private LongAdder counter(int status) {
+        return metrics.counter("http_requests_total", "Requests by route and status code",
+                "route", route, "status", Integer.toString(status));
+    }
+}
@@ -0,0 +1,69 @@
+package com.phone.booking.service;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import akka.dispatch.ExecutionContexts;
+import com.typesafe.config.Config;
+import lombok.extern.slf4j.Slf4j;
+import scala.concurrent.ExecutionContextExecutor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executor for blocking file I/O: catalogue lookups, journal and history writes and the fono cache file.
+ * Keeping them off the default dispatcher means a slow disk cannot stall the booking actors and the routes.
+ * Callers hand the results back to their actor as messages, the work itself never touches actor state.
+ * <p>
+ * A thread pool dispatcher by default, or a thread per task on virtual threads when the JDK has them.
+ */
+@Slf4j
+public class BlockingIo implements Extension {
+
+    public static class Id extends ExtensionId<BlockingIo> {
+        private static final Id instance = new Id();
+
+        private Id() { }
+
+        @Override
+        public BlockingIo createExtension(ActorSystem<?> system) {
+            return new BlockingIo(system, system.settings().config().getConfig("my-app.blocking-io"));
+        }
+
+        public static BlockingIo get(ActorSystem<?> system) {
+            return instance.apply(system);
+        }
+    }
+
+    private final ExecutionContextExecutor executor;
+
+    public BlockingIo(ActorSystem<?> system, Config settings) {
+        ExecutorService virtualThreads = settings.getBoolean("virtual-threads") ? newVirtualThreadExecutor() : null;
+        if (virtualThreads != null) {
+            system.getWhenTerminated().thenRun(virtualThreads::shutdown);
+            executor = ExecutionContexts.fromExecutor(virtualThreads);
+        } else {
+            executor = system.dispatchers().lookup(DispatcherSelector.fromConfig("my-app.blocking-io.dispatcher"));
+        }
+    }
+
+    /**
+     * Also an ExecutionContext, for the scheduler and the Scala side of Akka.
+     */
+    public ExecutionContextExecutor executor() {
+        return executor;
+    }
+
+    // looked up reflectively, the code is compiled for JDKs that do not have virtual threads
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException exception) {
+            log.warn("Virtual threads are not available on Java {}, using the blocking-io dispatcher",
+                    System.getProperty("java.version"));
+            return null;
+        }
+    }
+}
@@ -2,79 +2,301 @@ package com.phone.booking.service;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.PostStop;
 import akka.actor.typed.Scheduler;
 import akka.actor.typed.javadsl.*;
-import akka.stream.Materializer;
+import com.phone.booking.journal.BookingHistory;
+import com.phone.booking.journal.BookingJournal;
 import com.phone.booking.messages.Commands;
+import com.phone.booking.metrics.LatencyHistogram;
+import com.phone.booking.metrics.Metrics;
 import com.phone.booking.messages.Messages;
 import com.phone.booking.models.Phone;
-import com.phone.booking.service.FetchPhoneExternalDetailsService.GetExternalDetails;
+import com.phone.booking.service.FetchPhoneExternalDetailsService.GetExternalDetailsBatch;
 import com.phone.booking.service.FetchPhoneExternalDetailsService.PhoneCommand;
+import com.phone.booking.store.DeviceInventory;
+import com.phone.booking.store.HashedTimerWheel;
+import com.phone.booking.store.InventorySnapshot;
+import com.phone.booking.store.PhoneIndexes;
+import com.phone.booking.store.PhoneSearchIndex;
+import com.phone.booking.store.PhoneInventoryView;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.time.Duration;
-import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static com.phone.booking.Status.*;
 
 public class BookingService extends AbstractBehavior<Commands.Command> {
 
-    private final Map<String, Phone> phoneStore = new HashMap<>();
-    private final Duration askTimeout;
+    private enum FlushJournal implements Commands.Command { INSTANCE }
+
+    private enum HoldTick implements Commands.Command { INSTANCE }
+
+    private record PhonesEnriched(List<Phone> requested, List<Phone> enriched) implements Commands.Command { }
+
+    private record JournalWritten(Throwable journalFailure, Throwable historyFailure) implements Commands.Command { }
+
+    private final DeviceInventory inventory = new DeviceInventory();
+    private final PhoneIndexes indexes = new PhoneIndexes();
+    // rebuilt once the startup enrichment has filled in the technology of the phones
+    private PhoneSearchIndex searchIndex;
     private final Scheduler scheduler;
+    private final TimerScheduler<Commands.Command> timers;
+    // expiry of the holds, by device; the end of a hold is also kept in the inventory for the DTOs and snapshots
+    private final HashedTimerWheel holds;
+    private final Duration holdTick;
+    // null when my-app.journal.enabled is off
+    private final BookingJournal journal;
+    // null when my-app.history.enabled is off
+    private final BookingHistory history;
+    // journal and history are written on it, so the actor keeps serving during the fsync
+    private final Executor blockingIo;
+    // null while no write is in flight
+    private CompletableFuture<JournalWritten> journalWrite;
+    // null when nobody reads the published snapshots
+    private final PhoneInventoryView view;
+    private final int partition;
+    // receives the published phones to replicate them to the other nodes of a cluster, null outside a cluster
+    private final ActorRef<List<Phone>> replica;
+    private boolean replicating;
+    private final Metrics metrics;
+    private InventorySnapshot published;
+    // startup enrichment, sent to the details actor in batches of which a bounded number is in flight
+    private final ActorRef<PhoneCommand> externalApiServiceActor;
+    private final int enrichmentBatchSize;
+    private final Duration enrichmentTimeout;
+    private List<Phone> toEnrich = List.of();
+    private int nextToEnrich;
+    private int enriched;
 
     public static Behavior<Commands.Command> create(List<String> phones) {
+        return create(phones, null, 0);
+    }
+
+    public static Behavior<Commands.Command> create(List<String> phones, PhoneInventoryView view, int partition) {
+        return create(phones, view, partition, null);
+    }
+
+    /**
+     * @param replica optional, gets every published phone: all of them once the startup enrichment is done,
+     *                then each phone that changed
+     */
+    public static Behavior<Commands.Command> create(List<String> phones, PhoneInventoryView view, int partition,
+                                                    ActorRef<List<Phone>> replica) {
         Objects.requireNonNull(phones);
-        return Behaviors.setup(ctx -> {
+        return Behaviors.setup(ctx -> Behaviors.withTimers(timers -> {
             ctx.setLoggerName(BookingService.class.getName());
             ctx.getLog().info("Starting up");
-            return new BookingService(ctx, phones);
-        });
+            return new BookingService(ctx, timers, phones, view, partition, replica);
+        }));
     }
 
-    private BookingService(ActorContext<Commands.Command> context, List<String> phones) {
+    private BookingService(ActorContext<Commands.Command> context, TimerScheduler<Commands.Command> timers,
+                           List<String> phones, PhoneInventoryView view, int partition, ActorRef<List<Phone>> replica) {
         super(context);
+        this.view = view;
+        this.partition = partition;
+        this.replica = replica;
+        metrics = Metrics.Id.get(context.getSystem());
         context.getLog().debug("booking booking actor started");
+        Config config = context.getSystem().settings().config();
         scheduler = context.getSystem().scheduler();
-        askTimeout =  context.getSystem().settings().config().getDuration("my-app.routes.ask-timeout");
-        ActorRef<PhoneCommand> externalApiServiceActor = context.spawn(FetchPhoneExternalDetailsService
-                        .create(Materializer.createMaterializer(context.getSystem().classicSystem())), "details-api");
-        initializePhoneStore( phones, externalApiServiceActor);
+        this.timers = timers;
+        blockingIo = BlockingIo.Id.get(context.getSystem()).executor();
+        journal = config.getBoolean("my-app.journal.enabled") ? openJournal(config) : null;
+        history = config.getBoolean("my-app.history.enabled") ? openHistory(config) : null;
+        externalApiServiceActor = context.spawn(FetchPhoneExternalDetailsService.create(), "details-api");
+        enrichmentBatchSize = config.getInt("my-app.fonoapi.enrichment.batch-size");
+        enrichmentTimeout = config.getDuration("my-app.fonoapi.enrichment.batch-timeout");
+        initializePhoneStore(phones, config.getObject("my-app.booking.units").unwrapped(),
+                config.getInt("my-app.fonoapi.enrichment.parallel-batches"));
+        holdTick = config.getDuration("my-app.booking.holds.tick");
+        holds = new HashedTimerWheel(inventory.deviceCount(), holdTick.toMillis(),
+                config.getInt("my-app.booking.holds.wheel-slots"), System.currentTimeMillis());
+        // holds that ended while the actor was down expire on the first tick
+        for (int device = 0; device < inventory.deviceCount(); device++)
+            if (inventory.holdUntil(device) > 0)
+                holds.schedule(device, inventory.holdUntil(device));
+        startHoldTicks();
+        if (journal != null || history != null)
+            timers.startTimerWithFixedDelay(FlushJournal.INSTANCE, config.getDuration("my-app.journal.flush-interval"));
+    }
+
+    // one journal per actor name, so every shard of a BookingShardRouter keeps its own files
+    private BookingJournal openJournal(Config config) {
+        try {
+            return new BookingJournal(Path.of(config.getString("my-app.journal.dir")),
+                    getContext().getSelf().path().name(), config.getInt("my-app.journal.snapshot-every"));
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Failed to open booking journal", exception);
+        }
+    }
+
+    private BookingHistory openHistory(Config config) {
+        try {
+            BookingHistory history = new BookingHistory(Path.of(config.getString("my-app.history.dir")),
+                    getContext().getSelf().path().name(), config.getDuration("my-app.history.segment"),
+                    config.getDuration("my-app.history.retention"));
+            history.load(System.currentTimeMillis());
+            return history;
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Failed to open booking history", exception);
+        }
     }
 
-    private void initializePhoneStore(List<String> phones,
-                                                    ActorRef<PhoneCommand> externalApiServiceActor) {
+    private void initializePhoneStore(List<String> phones, Map<String, Object> units, int parallelBatches) {
         phones.stream()
                 .map(String::trim)
-                .map(model -> Phone.builder().modelName(model).available(true).build())
-                .forEach(phone -> {
-                        AskPattern.ask(externalApiServiceActor, ref -> new GetExternalDetails(phone, ref), askTimeout, scheduler)
-                                .whenComplete((response, exception) -> {
-                                    if (response != null)
-                                        phoneStore.put(phone.getModelName(), (Phone) response);
-                                    else
-                                        phoneStore.put(phone.getModelName(), phone);
-                                });
-                        phoneStore.put(phone.getModelName(), phone);
+                .forEach(model -> inventory.addModel(model, ((Number) units.getOrDefault(model, 1)).intValue()));
+        if (journal != null)
+            recoverFromJournal();
+        List<Phone> all = inventory.phones();
+        all.forEach(indexes::update);
+        updateSearchIndex();
+        // the enrichment below fills in these DTOs, the feed gets copies of its own
+        if (view != null && view.changes() != null)
+            inventory.phones().forEach(view.changes()::publish);
+
+        // phones restored from a snapshot already carry their fono details
+        toEnrich = all.stream()
+                .filter(phone -> phone.getTechnology() == null)
+                .toList();
+        reportProgress();
+        for (int i = 0; i < parallelBatches; i++)
+            enrichNextBatch();
+        if (toEnrich.isEmpty())
+            publishAll();
+    }
+
+    private void updateSearchIndex() {
+        searchIndex = PhoneSearchIndex.of(inventory.phones());
+        if (view != null)
+            view.publishSearchIndex(partition, searchIndex);
+    }
+
+    // results come back as messages, so the inventory is only ever touched by the actor itself
+    private void enrichNextBatch() {
+        if (nextToEnrich == toEnrich.size())
+            return;
+        List<Phone> batch = toEnrich.subList(nextToEnrich, Math.min(nextToEnrich + enrichmentBatchSize, toEnrich.size()));
+        nextToEnrich += batch.size();
+        Logger log = getContext().getLog();
+        getContext().pipeToSelf(
+                AskPattern.ask(externalApiServiceActor, ref -> new GetExternalDetailsBatch(batch, ref), enrichmentTimeout, scheduler),
+                (response, exception) -> {
+                    if (exception != null)
+                        log.warn("Failed to enrich a batch of {} phones", batch.size(), exception);
+                    return new PhonesEnriched(batch, exception == null ? response : batch);
                 });
-                //.collect(Collectors.toMap(Phone::getModelName, Function.identity()));
+    }
+
+    private void reportProgress() {
+        if (view != null)
+            view.reportEnrichment(partition, enriched, toEnrich.size());
+    }
+
+    private void recoverFromJournal() {
+        try {
+            BookingJournal.Recovery recovery = journal.recover();
+            if (recovery.snapshot() != null)
+                recovery.snapshot().phones().forEach(this::restore);
+            recovery.events().forEach(this::applyEvent);
+            getContext().getLog().info("Recovered booking state from {} and {} journal events",
+                    recovery.snapshot() == null ? "no snapshot" : "snapshot " + recovery.snapshot().seqNr(),
+                    recovery.events().size());
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Failed to recover booking journal", exception);
+        }
+    }
+
+    // a snapshot holds one entry per booked unit, see DeviceInventory.unitStates
+    private void restore(Phone phone) {
+        int model = inventory.modelId(phone.getModelName());
+        if (model < 0)
+            return;
+        if (phone.getTechnology() != null)
+            inventory.setDetails(model, phone.getTechnology(), phone.get_2g_bands(), phone.get_3g_bands(), phone.get_4g_bands());
+        if (!phone.isAvailable()) {
+            int device = inventory.book(model, phone.getBookedBy(), DeviceInventory.parseInstant(phone.getBookingDate()));
+            if (device >= 0 && phone.getHoldUntil() != null)
+                inventory.hold(device, DeviceInventory.parseInstant(phone.getHoldUntil()));
+        }
+    }
+
+    private void applyEvent(BookingJournal.Event event) {
+        int model = inventory.modelId(event.modelName());
+        if (model < 0)
+            return;
+        switch (event.type()) {
+            case BookingJournal.Event.BOOKED -> {
+                int device = inventory.book(model, event.bookedBy(), DeviceInventory.parseInstant(event.bookingDate()));
+                if (device >= 0 && event.holdUntil() != null)
+                    inventory.hold(device, DeviceInventory.parseInstant(event.holdUntil()));
+            }
+            case BookingJournal.Event.HOLD_EXTENDED -> {
+                long until = DeviceInventory.parseInstant(event.holdUntil());
+                int end = inventory.firstDevice(model) + inventory.units(model);
+                for (int device = inventory.firstDevice(model); device < end; device++)
+                    if (inventory.holdUntil(device) > 0 && event.bookedBy().equals(inventory.bookedBy(device)))
+                        inventory.hold(device, until);
+            }
+            default -> {
+                // events written before returns named the booker release any booked unit
+                int device = event.bookedBy() == null ? -1 : inventory.firstBooked(model, event.bookedBy());
+                inventory.release(device >= 0 ? device : inventory.firstBooked(model, null));
+            }
+        }
     }
 
     // This receive handles all possible incoming messages and keeps the state in the actor
     @Override
     public Receive<Commands.Command> createReceive() {
         return newReceiveBuilder()
-                .onMessage(Commands.BookPhone.class, this::bookPhone)
-                .onMessage(Commands.GetAllPhones.class, this::getAllPhones)
-                .onMessage(Commands.ReturnPhone.class, this::returnPhone)
-                .onMessage(Commands.GetPhoneDetails.class, this::getPhoneDetails)
+                .onMessage(Commands.BookPhone.class, timed("book", this::bookPhone))
+                .onMessage(Commands.GetAllPhones.class, timed("all", this::getAllPhones))
+                .onMessage(Commands.ReturnPhone.class, timed("return", this::returnPhone))
+                .onMessage(Commands.GetPhoneDetails.class, timed("details", this::getPhoneDetails))
+                .onMessage(Commands.QueryPhones.class, timed("query", this::queryPhones))
+                .onMessage(Commands.BatchBooking.class, timed("batch", this::batchBooking))
+                .onMessage(Commands.ExtendHold.class, timed("hold", this::extendHold))
+                .onMessage(Commands.SearchPhones.class, timed("search", this::searchPhones))
+                .onMessage(Commands.GetUserPhones.class, timed("userPhones", this::getUserPhones))
+                .onMessage(Commands.GetUserHistory.class, timed("userHistory", this::getUserHistory))
+                .onMessage(FlushJournal.class, this::flushJournal)
+                .onMessage(JournalWritten.class, this::onJournalWritten)
+                .onMessage(HoldTick.class, this::expireHolds)
+                .onMessage(PhonesEnriched.class, this::onPhonesEnriched)
+                .onSignal(PostStop.class, signal -> closeJournal())
                 .build();
     }
 
+    // time spent handling the command; the ask time of the routes minus this is the time spent in the mailbox
+    private <M> akka.japi.function.Function<M, Behavior<Commands.Command>> timed(
+            String command, akka.japi.function.Function<M, Behavior<Commands.Command>> handler) {
+        LatencyHistogram latency = metrics.histogram("booking_command_seconds",
+                "Time the booking actor spends handling a command", "command", command);
+        return message -> {
+            long start = System.nanoTime();
+            try {
+                return handler.apply(message);
+            } finally {
+                latency.recordSince(start);
+            }
+        };
+    }
+
     private Behavior<Commands.Command> getPhoneDetails(Commands.GetPhoneDetails msg) {
         getContext().getLog().debug("getPhoneDetails for phones: {}", msg.modelName());
-        if (phoneStore.containsKey(msg.modelName()))
-            msg.replyTo().tell(new Messages.BookingResponse<>(success, phoneStore.get(msg.modelName())));
+        int model = inventory.modelId(msg.modelName());
+        if (model >= 0)
+            msg.replyTo().tell(new Messages.BookingResponse<>(success, inventory.toPhone(model)));
         else {
             msg.replyTo().tell(new Messages.BookingResponse<>(notFound, "Phone not found."));
         }
@@ -84,40 +306,350 @@ public class BookingService extends AbstractBehavior<Commands.Command> {
 
     private Behavior<Commands.Command> bookPhone(Commands.BookPhone msg) {
         getContext().getLog().debug("bookPhone request for phone: {}", msg.modelName());
-        if (phoneStore.containsKey(msg.modelName())) {
-            Phone phone = phoneStore.get(msg.modelName());
-            if (phone.isAvailable()) {
-                phone.setBookedBy(msg.bookedBy());
-                phone.setAvailable(false);
-                phone.setBookingDate(LocalDateTime.now().toString());
-                phoneStore.put(msg.modelName(), phone);
-                msg.replyTo().tell(new Messages.BookingResponse<>(success, "Phone booked successfully."));
+        msg.replyTo().tell(book(msg.modelName(), msg.bookedBy(), msg.hold()));
+        return Behaviors.same();
+    }
+
+    // hold is null for a booking that lasts until the phone is returned
+    private Messages.BookingResponse<String> book(String modelName, String bookedBy, Duration hold) {
+        int model = inventory.modelId(modelName);
+        if (model >= 0) {
+            long now = System.currentTimeMillis();
+            int device = inventory.book(model, bookedBy, now);
+            if (device >= 0) {
+                String holdUntil = null;
+                if (hold != null) {
+                    long until = now + hold.toMillis();
+                    inventory.hold(device, until);
+                    holds.schedule(device, until);
+                    startHoldTicks();
+                    holdUntil = DeviceInventory.formatDate(until);
+                }
+                if (journal != null)
+                    journal.append(BookingJournal.Event.BOOKED, modelName, bookedBy, DeviceInventory.formatInstant(now),
+                            hold == null ? null : DeviceInventory.formatInstant(now + hold.toMillis()));
+                if (history != null)
+                    history.append(now, BookingHistory.Entry.BOOKED, modelName, bookedBy);
+                changed(model);
+                return new Messages.BookingResponse<>(success,
+                        holdUntil == null ? "Phone booked successfully." : "Phone booked until " + holdUntil + ".");
             } else {
-                msg.replyTo().tell(new Messages.BookingResponse<>(unavailable, "Phone is already booked."));
+                return new Messages.BookingResponse<>(unavailable, "Phone is already booked.");
             }
         } else {
-            msg.replyTo().tell(new Messages.BookingResponse<>(notFound, "Phone not found."));
+            return new Messages.BookingResponse<>(notFound, "Phone not found.");
         }
-        return Behaviors.same();
     }
 
     private Behavior<Commands.Command> getAllPhones(Commands.GetAllPhones msg) {
         getContext().getLog().debug("getAllPhones request for all phones");
-        msg.replyTo().tell(new Messages.BookingResponse<>(success, new ArrayList<>(phoneStore.values())));
+        msg.replyTo().tell(new Messages.BookingResponse<>(success, inventory.phones()));
+        return Behaviors.same();
+    }
+
+    // Walks the smallest matching index from the cursor on, so a page costs about limit lookups
+    private Behavior<Commands.Command> queryPhones(Commands.QueryPhones msg) {
+        Messages.PhoneQuery query = msg.query();
+        getContext().getLog().debug("queryPhones request: {}", query);
+        List<Phone> phones = new ArrayList<>();
+        for (String model : indexes.candidates(query, query.bookedBy() == null ? null : inventory.modelsOf(query.bookedBy()))) {
+            Phone phone = inventory.toPhone(inventory.modelId(model));
+            if (query.matches(phone)) {
+                phones.add(phone);
+                if (phones.size() == query.limit())
+                    break;
+            }
+        }
+        String nextCursor = phones.size() == query.limit() ? phones.get(phones.size() - 1).getModelName() : null;
+        msg.replyTo().tell(new Messages.BookingResponse<>(success, new Messages.PhonePage(phones, nextCursor)));
         return Behaviors.same();
     }
 
     private Behavior<Commands.Command> returnPhone(Commands.ReturnPhone msg) {
         getContext().getLog().debug("returnPhone request for phone: {}", msg.modelName());
-        if (phoneStore.containsKey(msg.modelName())) {
-            Phone phone = phoneStore.get(msg.modelName());
-            phone.setBookedBy(null);
-            phone.setBookingDate(null);
-            phone.setAvailable(true);
-            phoneStore.put(msg.modelName(), phone);
-            msg.replyTo().tell(new Messages.BookingResponse<>(success, "Thank you!"));
+        msg.replyTo().tell(giveBack(msg.modelName()));
+        return Behaviors.same();
+    }
+
+    // returning a phone that is not booked is accepted as well
+    private Messages.BookingResponse<String> giveBack(String modelName) {
+        int model = inventory.modelId(modelName);
+        if (model >= 0) {
+            int device = inventory.firstBooked(model, null);
+            if (device >= 0)
+                release(device, BookingHistory.Entry.RETURNED);
+            return new Messages.BookingResponse<>(success, "Thank you!");
         } else {
+            return new Messages.BookingResponse<>(notFound, "Phone not found.");
+        }
+    }
+
+    // the returned event names the booker, so replaying it releases the same unit of a model with several units
+    private void release(int device, String historyType) {
+        int model = inventory.modelOf(device);
+        String bookedBy = inventory.bookedBy(device);
+        inventory.release(device);
+        holds.cancel(device);
+        if (journal != null)
+            journal.append(BookingJournal.Event.RETURNED, inventory.modelName(model), bookedBy, null);
+        if (history != null)
+            history.append(System.currentTimeMillis(), historyType, inventory.modelName(model), bookedBy);
+        changed(model);
+    }
+
+    private Behavior<Commands.Command> searchPhones(Commands.SearchPhones msg) {
+        getContext().getLog().debug("searchPhones request: {}", msg.query());
+        List<Phone> phones = new ArrayList<>();
+        for (String model : searchIndex.search(msg.query(), msg.limit()))
+            phones.add(inventory.toPhone(inventory.modelId(model)));
+        msg.replyTo().tell(new Messages.BookingResponse<>(success, phones));
+        return Behaviors.same();
+    }
+
+    // served from the user's device index of the inventory, one entry per booked unit
+    private Behavior<Commands.Command> getUserPhones(Commands.GetUserPhones msg) {
+        getContext().getLog().debug("getUserPhones request for user: {}", msg.bookedBy());
+        List<Phone> phones = new ArrayList<>();
+        for (int device : inventory.devicesOf(msg.bookedBy()))
+            phones.add(inventory.unitState(device));
+        msg.replyTo().tell(new Messages.BookingResponse<>(success, phones));
+        return Behaviors.same();
+    }
+
+    private Behavior<Commands.Command> getUserHistory(Commands.GetUserHistory msg) {
+        getContext().getLog().debug("getUserHistory request for user: {}", msg.bookedBy());
+        if (history == null) {
+            msg.replyTo().tell(new Messages.BookingResponse<>(notFound, "The booking history is disabled."));
+            return Behaviors.same();
+        }
+        List<Messages.HistoryEntry> entries = history.query(msg.bookedBy(), msg.fromMillis(), msg.toMillis()).stream()
+                .map(entry -> new Messages.HistoryEntry(DeviceInventory.formatDate(entry.time()), entry.type(),
+                        entry.modelName(), entry.bookedBy(), entry.time()))
+                .toList();
+        msg.replyTo().tell(new Messages.BookingResponse<>(success, entries));
+        return Behaviors.same();
+    }
+
+    // A new hold replaces the remaining one, so extending can shorten a hold as well
+    private Behavior<Commands.Command> extendHold(Commands.ExtendHold msg) {
+        getContext().getLog().debug("extendHold request for phone: {}", msg.modelName());
+        int model = inventory.modelId(msg.modelName());
+        if (model < 0) {
             msg.replyTo().tell(new Messages.BookingResponse<>(notFound, "Phone not found."));
+            return Behaviors.same();
+        }
+        long until = System.currentTimeMillis() + msg.hold().toMillis();
+        boolean extended = false;
+        int end = inventory.firstDevice(model) + inventory.units(model);
+        for (int device = inventory.firstDevice(model); device < end; device++) {
+            if (holds.isScheduled(device) && msg.bookedBy().equals(inventory.bookedBy(device))) {
+                inventory.hold(device, until);
+                holds.schedule(device, until);
+                extended = true;
+            }
+        }
+        if (!extended) {
+            msg.replyTo().tell(new Messages.BookingResponse<>(unavailable, "No hold to extend."));
+            return Behaviors.same();
+        }
+        String holdUntil = DeviceInventory.formatDate(until);
+        if (journal != null)
+            journal.append(BookingJournal.Event.HOLD_EXTENDED, msg.modelName(), msg.bookedBy(), null,
+                    DeviceInventory.formatInstant(until));
+        changed(model);
+        msg.replyTo().tell(new Messages.BookingResponse<>(success, "Hold extended until " + holdUntil + "."));
+        return Behaviors.same();
+    }
+
+    // The wheel is only ticked while it holds anything, an idle actor gets no timer messages
+    private Behavior<Commands.Command> expireHolds(HoldTick msg) {
+        holds.advance(System.currentTimeMillis(), device -> {
+            getContext().getLog().debug("Hold of {} by {} expired", inventory.modelName(inventory.modelOf(device)),
+                    inventory.bookedBy(device));
+            release(device, BookingHistory.Entry.EXPIRED);
+        });
+        if (holds.size() == 0)
+            timers.cancel(HoldTick.INSTANCE);
+        return Behaviors.same();
+    }
+
+    private void startHoldTicks() {
+        if (holds.size() > 0 && !timers.isTimerActive(HoldTick.INSTANCE))
+            timers.startTimerWithFixedDelay(HoldTick.INSTANCE, holdTick);
+    }
+
+    // All operations of a batch are applied within this one message, so no other command interleaves
+    private Behavior<Commands.Command> batchBooking(Commands.BatchBooking msg) {
+        getContext().getLog().debug("batchBooking request for {} operations", msg.operations().size());
+        if (msg.atomic()) {
+            List<Messages.BatchItemResult> rejected = rejectedOperations(msg.operations());
+            if (rejected != null) {
+                msg.replyTo().tell(new Messages.BookingResponse<>(unavailable, rejected));
+                return Behaviors.same();
+            }
+        }
+        List<Messages.BatchItemResult> results = new ArrayList<>(msg.operations().size());
+        for (Messages.BatchOperation operation : msg.operations()) {
+            Messages.BookingResponse<String> response = switch (Objects.requireNonNullElse(operation.action(), "")) {
+                case Messages.BatchOperation.BOOK -> book(operation.modelName(), operation.bookedBy(), null);
+                case Messages.BatchOperation.RETURN -> giveBack(operation.modelName());
+                default -> new Messages.BookingResponse<>(badRequest, "Unknown action.");
+            };
+            results.add(new Messages.BatchItemResult(operation.action(), operation.modelName(),
+                    response.status(), response.data()));
+        }
+        msg.replyTo().tell(new Messages.BookingResponse<>(success, results));
+        return Behaviors.same();
+    }
+
+    /**
+     * Dry run of an atomic batch against the current store.
+     * @return null when every operation would succeed, otherwise the result of every operation
+     */
+    private List<Messages.BatchItemResult> rejectedOperations(List<Messages.BatchOperation> operations) {
+        // units each model would have available after the operations seen so far
+        Map<Integer, Integer> available = new HashMap<>();
+        List<Messages.BatchItemResult> results = new ArrayList<>(operations.size());
+        boolean rejected = false;
+        for (Messages.BatchOperation operation : operations) {
+            int model = inventory.modelId(operation.modelName());
+            Messages.BatchItemResult result = null;
+            if (!Messages.BatchOperation.BOOK.equals(operation.action()) && !Messages.BatchOperation.RETURN.equals(operation.action()))
+                result = new Messages.BatchItemResult(operation.action(), operation.modelName(), badRequest, "Unknown action.");
+            else if (model < 0)
+                result = new Messages.BatchItemResult(operation.action(), operation.modelName(), notFound, "Phone not found.");
+            else {
+                int units = available.getOrDefault(model, inventory.availableUnits(model));
+                if (Messages.BatchOperation.RETURN.equals(operation.action()))
+                    available.put(model, Math.min(units + 1, inventory.units(model)));
+                else if (units > 0)
+                    available.put(model, units - 1);
+                else
+                    result = new Messages.BatchItemResult(operation.action(), operation.modelName(), unavailable, "Phone is already booked.");
+            }
+            rejected |= result != null;
+            results.add(result != null ? result
+                    : new Messages.BatchItemResult(operation.action(), operation.modelName(), error, "Not applied, the batch was rejected."));
+        }
+        return rejected ? results : null;
+    }
+
+    // Enrichment only fills in fono details, the booking state in the store stays authoritative
+    private Behavior<Commands.Command> onPhonesEnriched(PhonesEnriched msg) {
+        for (Phone details : msg.enriched()) {
+            int model = inventory.modelId(details.getModelName());
+            inventory.setDetails(model, details.getTechnology(), details.get_2g_bands(), details.get_3g_bands(), details.get_4g_bands());
+            Phone phone = inventory.toPhone(model);
+            indexes.update(phone);
+            if (view != null && view.changes() != null)
+                view.changes().publish(phone);
+        }
+        enriched += msg.requested().size();
+        reportProgress();
+        if (enriched == toEnrich.size()) {
+            getContext().getLog().info("Enriched {} phones", enriched);
+            updateSearchIndex();
+            publishAll();
+        } else {
+            enrichNextBatch();
+        }
+        return Behaviors.same();
+    }
+
+    // the inventory only holds primitives, a DTO of the model is built for the indexes and the read side
+    private void changed(int model) {
+        Phone phone = inventory.toPhone(model);
+        indexes.update(phone);
+        publish(phone);
+        if (view != null && view.changes() != null)
+            view.changes().publish(phone);
+    }
+
+    // Snapshots are published only once enrichment is done, until then readers fall back to asking the actor
+    private void publishAll() {
+        if (replica != null) {
+            replicating = true;
+            replica.tell(inventory.phones());
+        }
+        if (view == null)
+            return;
+        published = InventorySnapshot.of(published == null ? 1 : published.version() + 1, inventory.phones());
+        view.publish(partition, published);
+    }
+
+    private void publish(Phone phone) {
+        if (replicating)
+            replica.tell(List.of(phone));
+        if (view == null || published == null)
+            return;
+        published = published.with(phone);
+        view.publish(partition, published);
+    }
+
+    // Replies are sent as soon as an event is buffered; the buffer is written with one fsync per flush-interval.
+    // The write runs on the blocking-io executor, an interval ending while it is still in flight is skipped.
+    private Behavior<Commands.Command> flushJournal(FlushJournal msg) {
+        if (journalWrite != null)
+            return Behaviors.same();
+        BookingJournal.Write events = journal == null ? null
+                : journal.takeBuffered(journal.snapshotDue() ? inventory.unitStates() : null);
+        BookingHistory.Write entries = history == null ? null : history.takeBuffered(System.currentTimeMillis());
+        if ((events == null || events.isEmpty()) && (entries == null || entries.isEmpty()))
+            return Behaviors.same();
+        journalWrite = CompletableFuture.supplyAsync(() -> write(journal, events, history, entries), blockingIo);
+        getContext().pipeToSelf(journalWrite, (written, failure) ->
+                written != null ? written : new JournalWritten(failure, failure));
+        return Behaviors.same();
+    }
+
+    // runs on the blocking-io executor and touches nothing but the files
+    private static JournalWritten write(BookingJournal journal, BookingJournal.Write events,
+                                        BookingHistory history, BookingHistory.Write entries) {
+        Throwable journalFailure = null;
+        Throwable historyFailure = null;
+        if (events != null) {
+            try {
+                journal.write(events);
+            } catch (IOException exception) {
+                journalFailure = exception;
+            }
+        }
+        if (entries != null) {
+            try {
+                history.write(entries);
+            } catch (IOException exception) {
+                historyFailure = exception;
+            }
+        }
+        return new JournalWritten(journalFailure, historyFailure);
+    }
+
+    private Behavior<Commands.Command> onJournalWritten(JournalWritten msg) {
+        journalWrite = null;
+        if (msg.journalFailure() != null)
+            getContext().getLog().error("Failed to write booking journal", msg.journalFailure());
+        if (msg.historyFailure() != null)
+            getContext().getLog().error("Failed to write booking history", msg.historyFailure());
+        return Behaviors.same();
+    }
+
+    private Behavior<Commands.Command> closeJournal() {
+        // the files must not be closed under the write in flight, what it failed to write is flushed below
+        if (journalWrite != null)
+            journalWrite.exceptionally(failure -> null).join();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException exception) {
+                getContext().getLog().error("Failed to close booking journal", exception);
+            }
+        }
+        if (history != null) {
+            try {
+                history.close();
+            } catch (IOException exception) {
+                getContext().getLog().error("Failed to close booking history", exception);
+            }
         }
         return Behaviors.same();
     }
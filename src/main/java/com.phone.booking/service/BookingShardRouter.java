@@ -0,0 +1,284 @@
+package com.phone.booking.service;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.MailboxSelector;
+import akka.actor.typed.Scheduler;
+import akka.actor.typed.javadsl.*;
+import com.phone.booking.Status;
+import com.phone.booking.messages.Commands;
+import com.phone.booking.messages.Messages;
+import com.phone.booking.models.Phone;
+import com.phone.booking.store.PhoneInventoryView;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import static com.phone.booking.Status.badRequest;
+import static com.phone.booking.Status.error;
+import static com.phone.booking.Status.notFound;
+import static com.phone.booking.Status.success;
+
+/**
+ * Partitions the phone store over a fixed number of {@link BookingService} shards.
+ * Every model is owned by exactly one shard, so commands for the same model keep their order
+ * while different models are handled in parallel.
+ * The shards may also be given, any actors that answer the commands for their partition.
+ */
+public class BookingShardRouter extends AbstractBehavior<Commands.Command> {
+
+    private final List<ActorRef<Commands.Command>> shards;
+    private final Duration askTimeout;
+    private final Scheduler scheduler;
+
+    public static Behavior<Commands.Command> create(List<String> phones, int shardCount) {
+        return create(phones, shardCount, null);
+    }
+
+    /**
+     * @param view optional read side, must have one partition per shard
+     */
+    public static Behavior<Commands.Command> create(List<String> phones, int shardCount, PhoneInventoryView view) {
+        Objects.requireNonNull(phones);
+        if (shardCount < 1)
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        if (view != null && view.partitionCount() != shardCount)
+            throw new IllegalArgumentException("view must have one partition per shard");
+        return Behaviors.setup(ctx -> {
+            ctx.setLoggerName(BookingShardRouter.class.getName());
+            ctx.getLog().info("Starting up with {} shards", shardCount);
+            return new BookingShardRouter(ctx, spawnShards(ctx, phones, shardCount, view));
+        });
+    }
+
+    /**
+     * Routes over the given shards, shard i answers for the models of partition i.
+     */
+    public static Behavior<Commands.Command> createOver(List<ActorRef<Commands.Command>> shards) {
+        if (shards.isEmpty())
+            throw new IllegalArgumentException("shards must not be empty");
+        return Behaviors.setup(ctx -> {
+            ctx.setLoggerName(BookingShardRouter.class.getName());
+            ctx.getLog().info("Starting up over {} shards", shards.size());
+            return new BookingShardRouter(ctx, List.copyOf(shards));
+        });
+    }
+
+    private BookingShardRouter(ActorContext<Commands.Command> context, List<ActorRef<Commands.Command>> shards) {
+        super(context);
+        scheduler = context.getSystem().scheduler();
+        askTimeout = context.getSystem().settings().config().getDuration("my-app.routes.ask-timeout");
+        this.shards = shards;
+    }
+
+    private static List<ActorRef<Commands.Command>> spawnShards(ActorContext<Commands.Command> context, List<String> phones,
+                                                                int shardCount, PhoneInventoryView view) {
+        List<List<String>> partitions = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++)
+            partitions.add(new ArrayList<>());
+        phones.stream()
+                .map(String::trim)
+                .forEach(model -> partitions.get(shardOf(model, shardCount)).add(model));
+
+        MailboxSelector mailbox = MailboxSelector.bounded(
+                context.getSystem().settings().config().getInt("my-app.booking.mailbox-capacity"));
+        List<ActorRef<Commands.Command>> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++)
+            shards.add(context.spawn(BookingService.create(partitions.get(i), view, i), "shard-" + i, mailbox));
+        return shards;
+    }
+
+    static int shardOf(String modelName, int shardCount) {
+        return PhoneInventoryView.partitionOf(modelName, shardCount);
+    }
+
+    @Override
+    public Receive<Commands.Command> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(Commands.ModelCommand.class, this::routeToShard)
+                .onMessage(Commands.GetAllPhones.class, this::getAllPhones)
+                .onMessage(Commands.QueryPhones.class, this::queryPhones)
+                .onMessage(Commands.SearchPhones.class, this::searchPhones)
+                .onMessage(Commands.GetUserPhones.class, this::getUserPhones)
+                .onMessage(Commands.GetUserHistory.class, this::getUserHistory)
+                .onMessage(Commands.BatchBooking.class, this::batchBooking)
+                .build();
+    }
+
+    private Behavior<Commands.Command> routeToShard(Commands.ModelCommand msg) {
+        shards.get(shardOf(msg.modelName(), shards.size())).tell(msg);
+        return Behaviors.same();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Behavior<Commands.Command> getAllPhones(Commands.GetAllPhones msg) {
+        getContext().getLog().debug("getAllPhones request scattered to {} shards", shards.size());
+        gather(shard -> Commands.GetAllPhones::new, msg.replyTo(), "Failed to collect phones.", replies -> {
+            List<Phone> phones = new ArrayList<>();
+            replies.forEach(reply -> phones.addAll((List<Phone>) reply.data()));
+            return phones;
+        });
+        return Behaviors.same();
+    }
+
+    // every shard returns its first matches in model name order, the first of their union are the answer
+    @SuppressWarnings("unchecked")
+    private Behavior<Commands.Command> searchPhones(Commands.SearchPhones msg) {
+        gather(shard -> ref -> new Commands.SearchPhones(msg.query(), msg.limit(), ref), msg.replyTo(),
+                "Failed to search phones.", replies -> {
+            List<Phone> phones = new ArrayList<>();
+            replies.forEach(reply -> phones.addAll((List<Phone>) reply.data()));
+            phones.sort(Comparator.comparing(Phone::getModelName));
+            return phones.size() > msg.limit() ? new ArrayList<>(phones.subList(0, msg.limit())) : phones;
+        });
+        return Behaviors.same();
+    }
+
+    // a user's bookings may be on every shard
+    @SuppressWarnings("unchecked")
+    private Behavior<Commands.Command> getUserPhones(Commands.GetUserPhones msg) {
+        gather(shard -> ref -> new Commands.GetUserPhones(msg.bookedBy(), ref), msg.replyTo(),
+                "Failed to collect the phones of the user.", replies -> {
+            List<Phone> phones = new ArrayList<>();
+            replies.forEach(reply -> phones.addAll((List<Phone>) reply.data()));
+            return phones;
+        });
+        return Behaviors.same();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Behavior<Commands.Command> getUserHistory(Commands.GetUserHistory msg) {
+        gather(shard -> ref -> new Commands.GetUserHistory(msg.bookedBy(), msg.fromMillis(), msg.toMillis(), ref),
+                msg.replyTo(), "Failed to collect the booking history.", replies -> {
+                    List<Messages.HistoryEntry> entries = new ArrayList<>();
+                    replies.forEach(reply -> entries.addAll((List<Messages.HistoryEntry>) reply.data()));
+                    // by epoch time, local date times repeat an hour when DST ends
+                    entries.sort(Comparator.comparingLong(Messages.HistoryEntry::time));
+                    return entries;
+                });
+        return Behaviors.same();
+    }
+
+    // every shard returns its first page after the cursor, the first page of their union is the answer
+    private Behavior<Commands.Command> queryPhones(Commands.QueryPhones msg) {
+        Messages.PhoneQuery query = msg.query();
+        gather(shard -> ref -> new Commands.QueryPhones(query, ref), msg.replyTo(), "Failed to query phones.", replies -> {
+            List<Phone> phones = new ArrayList<>();
+            boolean more = false;
+            for (Messages.BookingResponse<?> reply : replies) {
+                Messages.PhonePage page = (Messages.PhonePage) reply.data();
+                phones.addAll(page.phones());
+                more |= page.nextCursor() != null;
+            }
+            phones.sort(Comparator.comparing(Phone::getModelName));
+            more |= phones.size() > query.limit();
+            List<Phone> page = phones.size() > query.limit() ? new ArrayList<>(phones.subList(0, query.limit())) : phones;
+            return new Messages.PhonePage(page, more && !page.isEmpty() ? page.get(page.size() - 1).getModelName() : null);
+        });
+        return Behaviors.same();
+    }
+
+    // A batch within one shard keeps all its guarantees. Otherwise every shard involved applies its own operations
+    // and the results are put back into request order; atomicity cannot span shards.
+    private Behavior<Commands.Command> batchBooking(Commands.BatchBooking msg) {
+        List<Messages.BatchOperation> operations = msg.operations();
+        List<List<Integer>> positions = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++)
+            positions.add(new ArrayList<>());
+        for (int i = 0; i < operations.size(); i++)
+            positions.get(shardOf(operations.get(i).modelName(), shards.size())).add(i);
+
+        List<Integer> involved = IntStream.range(0, shards.size()).filter(shard -> !positions.get(shard).isEmpty()).boxed().toList();
+        if (involved.size() == 1) {
+            shards.get(involved.get(0)).tell(msg);
+            return Behaviors.same();
+        }
+        if (msg.atomic()) {
+            msg.replyTo().tell(new Messages.BookingResponse<>(badRequest,
+                    "An atomic batch must only contain phones of the same shard."));
+            return Behaviors.same();
+        }
+        List<CompletableFuture<Messages.BookingResponse<?>>> replies = involved.stream()
+                .map(shard -> AskPattern.<Commands.Command, Messages.BookingResponse<?>>ask(shards.get(shard),
+                        ref -> new Commands.BatchBooking(positions.get(shard).stream().map(operations::get).toList(), false,
+                                msg.idempotencyKey(), ref),
+                        askTimeout, scheduler).toCompletableFuture())
+                .toList();
+        // the shards that did answer have applied their operations, so their results are kept whatever the others did
+        CompletableFuture.allOf(replies.toArray(new CompletableFuture[0])).whenComplete((ignored, exception) -> {
+            Messages.BatchItemResult[] results = new Messages.BatchItemResult[operations.size()];
+            for (int i = 0; i < involved.size(); i++) {
+                List<Integer> shardPositions = positions.get(involved.get(i));
+                List<?> shardResults = batchResults(replies.get(i), shardPositions.size());
+                for (int j = 0; j < shardPositions.size(); j++) {
+                    Messages.BatchOperation operation = operations.get(shardPositions.get(j));
+                    results[shardPositions.get(j)] = shardResults != null ? (Messages.BatchItemResult) shardResults.get(j)
+                            : rejectedBy(replies.get(i), operation);
+                }
+            }
+            msg.replyTo().tell(new Messages.BookingResponse<>(success, Arrays.asList(results)));
+        });
+        return Behaviors.same();
+    }
+
+    // the shard answered without results, e.g. its part reused an Idempotency-Key, or did not answer at all
+    private static Messages.BatchItemResult rejectedBy(CompletableFuture<Messages.BookingResponse<?>> reply,
+                                                       Messages.BatchOperation operation) {
+        Messages.BookingResponse<?> response = reply.isCompletedExceptionally() ? null : reply.join();
+        if (response != null && response.data() instanceof String message)
+            return new Messages.BatchItemResult(operation.action(), operation.modelName(), response.status(), message);
+        return new Messages.BatchItemResult(operation.action(), operation.modelName(), error,
+                "The shard did not answer, the operation may have been applied.");
+    }
+
+    // null when the shard failed to answer with a result per operation
+    private static List<?> batchResults(CompletableFuture<Messages.BookingResponse<?>> reply, int operations) {
+        if (reply.isCompletedExceptionally())
+            return null;
+        Messages.BookingResponse<?> response = reply.join();
+        return response.status() == success && response.data() instanceof List<?> results && results.size() == operations
+                ? results : null;
+    }
+
+    // Scatter-gather: every shard answers for its own partition, the router never blocks on the replies.
+    // A request every shard rejects alike, e.g. notFound while the history is disabled, is answered with the
+    // reply of the first shard; any other failure with the failure message.
+    private void gather(IntFunction<akka.japi.function.Function<ActorRef<Messages.BookingResponse<?>>, Commands.Command>> requestFor,
+                        ActorRef<Messages.BookingResponse<?>> replyTo, String failure,
+                        Function<List<Messages.BookingResponse<?>>, Object> combine) {
+        List<CompletableFuture<Messages.BookingResponse<?>>> replies = IntStream.range(0, shards.size())
+                .mapToObj(shard -> AskPattern.<Commands.Command, Messages.BookingResponse<?>>ask(
+                        shards.get(shard), requestFor.apply(shard), askTimeout, scheduler).toCompletableFuture())
+                .toList();
+
+        CompletableFuture.allOf(replies.toArray(new CompletableFuture[0]))
+                .whenComplete((ignored, exception) -> {
+                    List<Messages.BookingResponse<?>> responses = exception == null
+                            ? replies.stream().<Messages.BookingResponse<?>>map(CompletableFuture::join).toList()
+                            : List.of();
+                    if (exception == null && !responses.isEmpty() && rejectedAlike(responses)) {
+                        replyTo.tell(responses.get(0));
+                        return;
+                    }
+                    if (exception != null || responses.stream().anyMatch(response -> response.status() != success)) {
+                        replyTo.tell(new Messages.BookingResponse<>(error, failure));
+                        return;
+                    }
+                    replyTo.tell(new Messages.BookingResponse<>(success, combine.apply(responses)));
+                });
+    }
+
+    private static boolean rejectedAlike(List<Messages.BookingResponse<?>> responses) {
+        Status status = responses.get(0).status();
+        return (status == notFound || status == badRequest)
+                && responses.stream().allMatch(response -> response.status() == status);
+    }
+}
@@ -6,53 +6,79 @@ import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
-import akka.http.javadsl.Http;
-import akka.http.javadsl.model.ContentTypes;
-import akka.http.javadsl.model.HttpEntity;
-import akka.http.javadsl.model.HttpRequest;
-import akka.http.javadsl.model.StatusCodes;
-import akka.http.javadsl.unmarshalling.Unmarshaller;
-import akka.stream.Materializer;
-import akka.util.ByteString;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phone.booking.metrics.LatencyHistogram;
+import com.phone.booking.metrics.Metrics;
 import com.phone.booking.models.Phone;
+import org.slf4j.Logger;
 
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 
 public class FetchPhoneExternalDetailsService extends AbstractBehavior<FetchPhoneExternalDetailsService.PhoneCommand> {
-    private final String API_URL;
-    private final String API_TOKEN;
     private final boolean isAVAILABLE;
     public interface PhoneCommand {}
 
     public record GetExternalDetails(Phone phone, ActorRef<Object> replyTo) implements PhoneCommand { }
 
+    // replies with the phones in request order, those without details unchanged
+    public record GetExternalDetailsBatch(List<Phone> phones, ActorRef<List<Phone>> replyTo) implements PhoneCommand { }
+
     public record PhoneDetails(String model, String technology, String _2g_bands, String _3g_bands, String _4g_bands) { }
 
-    private final Materializer materializer;
-    final ObjectMapper mapper;
+    // catalogue details of the phones of a request, in request order, or why the catalogue could not be read
+    private record CatalogueLookedUp(PhoneCommand request, List<Optional<PhoneDetails>> details, Throwable failure)
+            implements PhoneCommand { }
 
-    public FetchPhoneExternalDetailsService(ActorContext<PhoneCommand> context, Materializer materializer) {
+    final ObjectMapper mapper;
+    private final PhoneDetailsCatalogue catalogue;
+    // shared by all details actors of the system, null while the api is not available
+    private final FonoApiClient apiClient;
+    // api lookups of one batch in flight at once
+    private final int apiParallelism;
+    private final LatencyHistogram lookupLatency;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder failures;
+    // the catalogue is read from disk on first use and when the file changes
+    private final Executor blockingIo;
+
+    public FetchPhoneExternalDetailsService(ActorContext<PhoneCommand> context) {
         super(context);
         mapper = new ObjectMapper();
         mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        API_URL = context.getSystem().settings().config().getString("my-app.fonoapi.api");
-        API_TOKEN = context.getSystem().settings().config().getString("my-app.fonoapi.token");
         isAVAILABLE = context.getSystem().settings().config().getBoolean("my-app.fonoapi.available");
-        this.materializer = materializer;
+        catalogue = new PhoneDetailsCatalogue(
+                Path.of(context.getSystem().settings().config().getString("my-app.fonoapi.catalogue.file")), mapper,
+                context.getSystem().settings().config().getDuration("my-app.fonoapi.catalogue.reload-check-interval"));
+        apiClient = isAVAILABLE ? FonoApiClient.Id.get(context.getSystem()) : null;
+        apiParallelism = context.getSystem().settings().config().getInt("my-app.fonoapi.client.parallelism");
+        blockingIo = BlockingIo.Id.get(context.getSystem()).executor();
+
+        Metrics metrics = Metrics.Id.get(context.getSystem());
+        String source = isAVAILABLE ? "api" : "catalogue";
+        lookupLatency = metrics.histogram("enrichment_seconds", "Time to look up the fono details of a phone", "source", source);
+        hits = metrics.counter("enrichment_total", "Fono detail lookups by result", "source", source, "result", "hit");
+        misses = metrics.counter("enrichment_total", "Fono detail lookups by result", "source", source, "result", "miss");
+        failures = metrics.counter("enrichment_total", "Fono detail lookups by result", "source", source, "result", "failure");
     }
 
-    public static Behavior<FetchPhoneExternalDetailsService.PhoneCommand> create(Materializer materializer) {
+    public static Behavior<FetchPhoneExternalDetailsService.PhoneCommand> create() {
         return Behaviors.setup(ctx -> {
             ctx.setLoggerName(FetchPhoneExternalDetailsService.class.getName());
             ctx.getLog().info("Starting up");
-            return new FetchPhoneExternalDetailsService(ctx, materializer);
+            return new FetchPhoneExternalDetailsService(ctx);
         });
     }
 
@@ -60,6 +86,8 @@ public class FetchPhoneExternalDetailsService extends AbstractBehavior<FetchPhon
     public Receive<PhoneCommand> createReceive() {
         return newReceiveBuilder()
                 .onMessage(GetExternalDetails.class, this::onGetPhoneDetails)
+                .onMessage(GetExternalDetailsBatch.class, this::onGetPhoneDetailsBatch)
+                .onMessage(CatalogueLookedUp.class, this::onCatalogueLookedUp)
                 .build();
     }
 
@@ -67,69 +95,119 @@ public class FetchPhoneExternalDetailsService extends AbstractBehavior<FetchPhon
         ActorRef<Object> replyTo = command.replyTo();
         getContext().getLog().debug("Fetching details from fonoapi for model: {}", command.phone.getModelName());
         if (isAVAILABLE) {
+            Logger log = getContext().getLog();
+            long start = System.nanoTime();
             fetchPhoneDetailsApi(command.phone)
                     .whenComplete((phoneDetails, ex) -> {
+                        lookupLatency.recordSince(start);
                         if (phoneDetails != null) {
                             replyTo.tell(phoneDetails);
                         } else {
-                            getContext().getLog().error("Failed to fetch phone details");
-                            replyTo.tell(null);
+                            failures.increment();
+                            log.warn("Failed to fetch phone details for model: {}", command.phone.getModelName(), ex);
+                            replyTo.tell(command.phone);
                         }
                     });
         } else {
-            fetchPhoneDetails(command);
+            lookUpCatalogue(command, List.of(command.phone()));
         }
 
         return Behaviors.same();
     }
 
-    private CompletionStage<Phone> fetchPhoneDetailsApi(Phone phone) {
-        getContext().getLog().debug("calling fonoapi");
-        HttpRequest request = HttpRequest.POST(API_URL)
-                .withEntity(ContentTypes.APPLICATION_JSON,
-                        ByteString.fromString(String.format("{\"token\":\"" + API_TOKEN + "\",\"device\":\"%s\"}",
-                                phone.getModelName())));
-
-        return Http.get(getContext().getSystem()).singleRequest(request)
-                .thenCompose(response -> {
-                    if (response.status().equals(StatusCodes.OK)) {
-                        Unmarshaller<HttpEntity, Phone> unmarshaller = Unmarshaller.entityToString()
-                                .thenApply(jsonString -> {
-
-                                    try {
-                                        PhoneDetails phoneDetails = mapper.readValue(jsonString, PhoneDetails.class);
-                                        phone.set_2g_bands(phoneDetails._2g_bands);
-                                        phone.set_3g_bands(phoneDetails._3g_bands);
-                                        phone.set_4g_bands(phoneDetails._4g_bands);
-                                        phone.setTechnology(phoneDetails.technology);
-                                    } catch (JsonProcessingException ignored) {}
-                                    return phone;
-                                });
-                        return unmarshaller.unmarshal(response.entity(), materializer);
+    // A batch is fed to the shared FonoApiClient with backpressure: at most client.parallelism of its lookups
+    // are offered at once, so a large batch cannot overflow the queue of the client.
+    // The lookups run on stream threads, they must not touch the ActorContext. Should the stream fail anyway,
+    // the phones are replied as far as they were enriched, so the batch is not left to its ask timeout.
+    private Behavior<PhoneCommand> onGetPhoneDetailsBatch(GetExternalDetailsBatch command) {
+        getContext().getLog().debug("Fetching details for a batch of {} phones", command.phones().size());
+        if (!isAVAILABLE) {
+            lookUpCatalogue(command, command.phones());
+            return Behaviors.same();
+        }
+        Logger log = getContext().getLog();
+        Source.from(command.phones())
+                .mapAsync(apiParallelism, phone -> {
+                    long start = System.nanoTime();
+                    return fetchPhoneDetailsApi(phone).toCompletableFuture()
+                            .exceptionally(exception -> {
+                                failures.increment();
+                                log.warn("Failed to fetch phone details for model: {}", phone.getModelName(), exception);
+                                return phone;
+                            })
+                            .whenComplete((result, exception) -> lookupLatency.recordSince(start));
+                })
+                .runWith(Sink.seq(), getContext().getSystem())
+                .whenComplete((phones, failure) -> {
+                    if (failure != null) {
+                        log.warn("Failed to enrich a batch of {} phones", command.phones().size(), failure);
+                        command.replyTo().tell(command.phones());
                     } else {
-                        throw new RuntimeException("Failed to fetch phone details: " + response.status());
+                        command.replyTo().tell(phones);
                     }
                 });
+        return Behaviors.same();
     }
 
-    private void fetchPhoneDetails(GetExternalDetails command){
-        try{
-            List<PhoneDetails> phoneDetailsList = mapper.readValue(Files.readString(
-                    Path.of("fonoData/phoneDetails.json")), new TypeReference<>() {
-            });
-            phoneDetailsList.stream()
-                    .filter(phoneDetails -> phoneDetails.model.equals(command.phone.getModelName()))
-                    .findFirst()
-                    .ifPresent(phoneDetails -> {
-                        command.phone.setTechnology(phoneDetails.technology);
-                        command.phone.set_2g_bands(phoneDetails._2g_bands);
-                        command.phone.set_3g_bands(phoneDetails._3g_bands);
-                        command.phone.set_4g_bands(phoneDetails._4g_bands);
-                    });
-           command.replyTo.tell(command.phone);
-        } catch (Exception exception){
-            getContext().getLog().error("Error during reading from file: ", exception);
+    // called from the stream of a batch as well, so without the ActorContext
+    private CompletionStage<Phone> fetchPhoneDetailsApi(Phone phone) {
+        return apiClient.lookup(phone.getModelName())
+                .thenApply(phoneDetails -> {
+                    (phoneDetails.isPresent() ? hits : misses).increment();
+                    phoneDetails.ifPresent(details -> applyDetails(phone, details));
+                    return phone;
+                });
+    }
+
+    private static void applyDetails(Phone phone, PhoneDetails phoneDetails) {
+        phone.setTechnology(phoneDetails.technology);
+        phone.set_2g_bands(phoneDetails._2g_bands);
+        phone.set_3g_bands(phoneDetails._3g_bands);
+        phone.set_4g_bands(phoneDetails._4g_bands);
+    }
+
+    // Lookups run on the blocking-io executor and come back as a message, only the actor changes the phones
+    private void lookUpCatalogue(PhoneCommand request, List<Phone> phones) {
+        List<String> models = phones.stream().map(Phone::getModelName).toList();
+        getContext().pipeToSelf(CompletableFuture.supplyAsync(() -> findInCatalogue(models), blockingIo),
+                (details, failure) -> new CatalogueLookedUp(request, details, failure));
+    }
+
+    private List<Optional<PhoneDetails>> findInCatalogue(List<String> models) {
+        List<Optional<PhoneDetails>> details = new ArrayList<>(models.size());
+        try {
+            for (String model : models) {
+                long start = System.nanoTime();
+                details.add(catalogue.find(model));
+                lookupLatency.recordSince(start);
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
         }
+        return details;
+    }
 
+    // A phone without details is replied unchanged. A single phone is not replied when the catalogue could
+    // not be read, its ask times out instead
+    private Behavior<PhoneCommand> onCatalogueLookedUp(CatalogueLookedUp result) {
+        List<Phone> phones = result.request() instanceof GetExternalDetailsBatch batch
+                ? batch.phones()
+                : List.of(((GetExternalDetails) result.request()).phone());
+        if (result.failure() != null) {
+            failures.add(phones.size());
+            getContext().getLog().error("Error during reading from file: ", result.failure());
+        } else {
+            for (int i = 0; i < phones.size(); i++) {
+                Optional<PhoneDetails> details = result.details().get(i);
+                (details.isPresent() ? hits : misses).increment();
+                Phone phone = phones.get(i);
+                details.ifPresent(phoneDetails -> applyDetails(phone, phoneDetails));
+            }
+        }
+        if (result.request() instanceof GetExternalDetailsBatch batch)
+            batch.replyTo().tell(batch.phones());
+        else if (result.failure() == null)
+            ((GetExternalDetails) result.request()).replyTo().tell(phones.get(0));
+        return Behaviors.same();
     }
 }
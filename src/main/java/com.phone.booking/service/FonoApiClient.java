@@ -0,0 +1,230 @@
+package com.phone.booking.service;
+
+import akka.Done;
+import akka.actor.Cancellable;
+import akka.actor.CoordinatedShutdown;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.pattern.CircuitBreaker;
+import akka.pattern.CircuitBreakerOpenException;
+import akka.stream.BoundedSourceQueue;
+import akka.stream.Materializer;
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phone.booking.service.FetchPhoneExternalDetailsService.PhoneDetails;
+import com.typesafe.config.Config;
+import scala.concurrent.ExecutionContextExecutor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Client for the fonoapi device endpoint, shared by every details actor of the system.
+ * Lookups are answered from a TTL cache when possible, otherwise they run through a stream with bounded
+ * parallelism on top of the host connection pool of {@link Http}. Each call is guarded by a circuit breaker
+ * and calls failing in transport, with a 5xx or with a 429 are retried with exponential backoff. A rejected
+ * request or an unreadable answer fails at once and does not count against the breaker.
+ */
+public class FonoApiClient implements Extension {
+
+    public static class Id extends ExtensionId<FonoApiClient> {
+        private static final Id instance = new Id();
+
+        private Id() { }
+
+        @Override
+        public FonoApiClient createExtension(ActorSystem<?> system) {
+            return new FonoApiClient(system, system.settings().config().getConfig("my-app.fonoapi"));
+        }
+
+        public static FonoApiClient get(ActorSystem<?> system) {
+            return instance.apply(system);
+        }
+    }
+
+    public static class ApiException extends RuntimeException {
+        private final boolean retryable;
+
+        public ApiException(String message) {
+            this(message, false);
+        }
+
+        public ApiException(String message, boolean retryable) {
+            super(message);
+            this.retryable = retryable;
+        }
+
+        public boolean isRetryable() {
+            return retryable;
+        }
+    }
+
+    private record Lookup(String model, CompletableFuture<Optional<PhoneDetails>> result) { }
+
+    private final ActorSystem<?> system;
+    private final Materializer materializer;
+    private final ObjectMapper mapper;
+    private final String apiUrl;
+    private final String apiToken;
+    private final int retryAttempts;
+    private final Duration minBackoff;
+    private final Duration maxBackoff;
+    private final CircuitBreaker circuitBreaker;
+    private final PhoneDetailsCache cache;
+    private final BoundedSourceQueue<Lookup> lookups;
+
+    public FonoApiClient(ActorSystem<?> system, Config settings) {
+        this.system = system;
+        materializer = Materializer.matFromSystem(system);
+        mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        apiUrl = settings.getString("api");
+        apiToken = settings.getString("token");
+
+        Config client = settings.getConfig("client");
+        retryAttempts = client.getInt("retry.attempts");
+        minBackoff = client.getDuration("retry.min-backoff");
+        maxBackoff = client.getDuration("retry.max-backoff");
+        circuitBreaker = CircuitBreaker.create(system.classicSystem().scheduler(),
+                client.getInt("circuit-breaker.max-failures"),
+                client.getDuration("circuit-breaker.call-timeout"),
+                client.getDuration("circuit-breaker.reset-timeout"));
+
+        String cacheFile = client.getString("cache.file");
+        cache = new PhoneDetailsCache(client.getDuration("cache.ttl"),
+                cacheFile.isEmpty() ? null : Path.of(cacheFile), mapper);
+        Duration saveInterval = client.getDuration("cache.save-interval");
+        // the cache file is written on the blocking-io executor, not on the dispatcher of the actors
+        ExecutionContextExecutor blockingIo = BlockingIo.Id.get(system).executor();
+        Cancellable saving = system.scheduler().scheduleWithFixedDelay(saveInterval, saveInterval, cache::save, blockingIo);
+        // the lookups since the last save are kept too when the system stops
+        CoordinatedShutdown.get(system).addTask(CoordinatedShutdown.PhaseBeforeActorSystemTerminate(),
+                "save-fono-details-cache", () -> CompletableFuture.supplyAsync(() -> {
+                    saving.cancel();
+                    cache.save();
+                    return Done.getInstance();
+                }, blockingIo));
+
+        lookups = Source.<Lookup>queue(client.getInt("queue-size"))
+                .mapAsyncUnordered(client.getInt("parallelism"), lookup ->
+                        fetchWithRetry(lookup.model(), 1).handle((details, exception) -> {
+                            if (exception != null)
+                                lookup.result().completeExceptionally(exception);
+                            else
+                                lookup.result().complete(details);
+                            return lookup;
+                        }))
+                .to(Sink.ignore())
+                .run(materializer);
+    }
+
+    /**
+     * Details for the model, empty when the api does not know it. Fails when the api stays unreachable
+     * or when too many lookups are already waiting.
+     */
+    public CompletionStage<Optional<PhoneDetails>> lookup(String model) {
+        PhoneDetailsCache.Entry cached = cache.get(model);
+        if (cached != null)
+            return CompletableFuture.completedFuture(Optional.ofNullable(cached.details()));
+
+        Lookup lookup = new Lookup(model, new CompletableFuture<>());
+        QueueOfferResult offered = lookups.offer(lookup);
+        if (!QueueOfferResult.enqueued().equals(offered))
+            lookup.result().completeExceptionally(new ApiException("Fono api lookup rejected: " + offered));
+        return lookup.result();
+    }
+
+    private CompletionStage<Optional<PhoneDetails>> fetchWithRetry(String model, int attempt) {
+        return circuitBreaker.callWithCircuitBreakerCS(() -> fetch(model),
+                        (details, failure) -> failure.map(FonoApiClient::retryable).orElse(false))
+                .handle((details, exception) -> {
+                    if (exception == null) {
+                        cache.put(model, details);
+                        return CompletableFuture.completedFuture(details);
+                    }
+                    if (attempt >= retryAttempts || !retryable(exception))
+                        return CompletableFuture.<Optional<PhoneDetails>>failedFuture(exception);
+                    CompletableFuture<Optional<PhoneDetails>> retried = new CompletableFuture<>();
+                    system.scheduler().scheduleOnce(backoff(attempt), () ->
+                            fetchWithRetry(model, attempt + 1).whenComplete((result, failure) -> {
+                                if (failure != null)
+                                    retried.completeExceptionally(failure);
+                                else
+                                    retried.complete(result);
+                            }), system.executionContext());
+                    return retried;
+                })
+                .thenCompose(result -> result);
+    }
+
+    // an open breaker fails fast, retrying would only keep it open
+    private static boolean retryable(Throwable exception) {
+        Throwable cause = exception instanceof CompletionException && exception.getCause() != null
+                ? exception.getCause() : exception;
+        if (cause instanceof ApiException)
+            return ((ApiException) cause).isRetryable();
+        return !(cause instanceof CircuitBreakerOpenException);
+    }
+
+    private Duration backoff(int attempt) {
+        long millis = Math.min(maxBackoff.toMillis(), minBackoff.toMillis() << Math.min(attempt - 1, 20));
+        return Duration.ofMillis((long) (millis * (1 + ThreadLocalRandom.current().nextDouble(0.2))));
+    }
+
+    private CompletionStage<Optional<PhoneDetails>> fetch(String model) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.POST(apiUrl).withEntity(ContentTypes.APPLICATION_JSON,
+                    mapper.writeValueAsBytes(Map.of("token", apiToken, "device", model)));
+        } catch (IOException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+        return Http.get(system).singleRequest(request)
+                .thenCompose(response -> {
+                    int status = response.status().intValue();
+                    // only a 404 says the model is unknown, the empty result is cached; e.g. a rejected token is not
+                    if (status != 200 && status != 404) {
+                        response.discardEntityBytes(materializer);
+                        throw new ApiException("Failed to fetch phone details: " + response.status(),
+                                status >= 500 || status == 429);
+                    }
+                    if (status == 404) {
+                        response.discardEntityBytes(materializer);
+                        return CompletableFuture.completedFuture(Optional.<PhoneDetails>empty());
+                    }
+                    return parse(response);
+                });
+    }
+
+    // the api answers with a single device or with a list of matching devices
+    private CompletionStage<Optional<PhoneDetails>> parse(HttpResponse response) {
+        return response.entity().toStrict(10_000, materializer).thenApply(strict -> {
+            try {
+                JsonNode json = mapper.readTree(strict.getData().toArray());
+                if (json.isArray())
+                    json = json.size() > 0 ? json.get(0) : null;
+                return json == null || !json.isObject()
+                        ? Optional.<PhoneDetails>empty()
+                        : Optional.of(mapper.treeToValue(json, PhoneDetails.class));
+            } catch (IOException exception) {
+                throw new ApiException("Unreadable fono api response: " + exception.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package com.phone.booking.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phone.booking.service.FetchPhoneExternalDetailsService.PhoneDetails;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fono details by model with a time to live, optionally kept in a file so restarts do not
+ * have to call the api again. Models the api does not know are cached alike, with null details.
+ */
+@Slf4j
+public class PhoneDetailsCache {
+
+    public record Entry(String model, PhoneDetails details, long expiresAt) { }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    // null keeps the cache in memory only
+    private final Path file;
+    private final ObjectMapper mapper;
+    private volatile boolean dirty;
+
+    public PhoneDetailsCache(Duration ttl, Path file, ObjectMapper mapper) {
+        this.ttlMillis = ttl.toMillis();
+        this.file = file;
+        this.mapper = mapper;
+        load();
+    }
+
+    /**
+     * @return null unless the model is cached, the details of the entry are null when the api does not know it
+     */
+    public Entry get(String model) {
+        Entry entry = entries.get(model);
+        if (entry == null)
+            return null;
+        if (entry.expiresAt() < System.currentTimeMillis()) {
+            entries.remove(model, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    // empty details are cached as well, so an unknown model is not asked for again until the ttl has passed
+    public void put(String model, Optional<PhoneDetails> details) {
+        entries.put(model, new Entry(model, details.orElse(null), System.currentTimeMillis() + ttlMillis));
+        dirty = true;
+    }
+
+    public synchronized void save() {
+        if (file == null || !dirty)
+            return;
+        dirty = false;
+        long now = System.currentTimeMillis();
+        List<Entry> live = new ArrayList<>();
+        entries.values().forEach(entry -> {
+            if (entry.expiresAt() >= now)
+                live.add(entry);
+        });
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            mapper.writeValue(tmp.toFile(), live);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException exception) {
+            dirty = true;
+            log.warn("Failed to save fono details cache to {}", file, exception);
+        }
+    }
+
+    private void load() {
+        if (file == null || !Files.exists(file))
+            return;
+        try {
+            List<Entry> saved = mapper.readValue(file.toFile(), new TypeReference<>() { });
+            long now = System.currentTimeMillis();
+            saved.stream()
+                    .filter(entry -> entry.expiresAt() >= now && entry.model() != null)
+                    .forEach(entry -> entries.put(entry.model(), entry));
+            log.info("Loaded {} cached fono details from {}", entries.size(), file);
+        } catch (IOException exception) {
+            log.warn("Ignoring unreadable fono details cache {}", file, exception);
+        }
+    }
+}
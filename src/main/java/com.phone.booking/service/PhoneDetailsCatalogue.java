@@ -0,0 +1,92 @@
+package com.phone.booking.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phone.booking.service.FetchPhoneExternalDetailsService.PhoneDetails;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the local fono catalogue file, keyed by model name.
+ * The file is parsed once with a streaming parser, one device at a time, and re-read only when its
+ * modification time changes. A reload updates the changed devices and drops the removed ones in place,
+ * lookups keep being served from the index while it happens.
+ */
+@Slf4j
+public class PhoneDetailsCatalogue {
+
+    private final Path file;
+    private final ObjectMapper mapper;
+    private final long reloadCheckIntervalNanos;
+    private final Map<String, PhoneDetails> index = new ConcurrentHashMap<>();
+    private volatile FileTime loadedVersion;
+    private volatile long nextCheck;
+
+    public PhoneDetailsCatalogue(Path file, ObjectMapper mapper, Duration reloadCheckInterval) {
+        this.file = file;
+        this.mapper = mapper;
+        this.reloadCheckIntervalNanos = reloadCheckInterval.toNanos();
+    }
+
+    public Optional<PhoneDetails> find(String model) throws IOException {
+        reloadIfChanged();
+        return Optional.ofNullable(index.get(model));
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    private void reloadIfChanged() throws IOException {
+        long now = System.nanoTime();
+        if (loadedVersion != null && now - nextCheck < 0)
+            return;
+        synchronized (this) {
+            if (loadedVersion != null && now - nextCheck < 0)
+                return;
+            nextCheck = now + reloadCheckIntervalNanos;
+            FileTime version = Files.getLastModifiedTime(file);
+            if (version.equals(loadedVersion))
+                return;
+            try {
+                load();
+                loadedVersion = version;
+            } catch (IOException exception) {
+                if (loadedVersion == null)
+                    throw exception;
+                log.warn("Failed to reload {}, keeping the current catalogue", file, exception);
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        Set<String> seen = new HashSet<>();
+        int changed = 0;
+        try (JsonParser parser = mapper.getFactory().createParser(file.toFile())) {
+            if (parser.nextToken() != JsonToken.START_ARRAY)
+                throw new IOException("Expected a JSON array of devices in " + file);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                PhoneDetails details = mapper.readValue(parser, PhoneDetails.class);
+                if (details.model() == null)
+                    continue;
+                seen.add(details.model());
+                if (!details.equals(index.put(details.model(), details)))
+                    changed++;
+            }
+        }
+        int sizeBefore = index.size();
+        index.keySet().retainAll(seen);
+        log.info("Loaded {} devices from {}, {} changed, {} removed", seen.size(), file, changed, sizeBefore - index.size());
+    }
+}
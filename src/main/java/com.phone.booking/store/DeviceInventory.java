@@ -0,0 +1,376 @@
+package com.phone.booking.store;
+
+import com.phone.booking.models.Phone;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.LongFunction;
+
+/**
+ * Booking state of every device of one booking actor, kept in primitive arrays.
+ * A model stands for one or more units, each unit is a device with an int id; the units of a model have
+ * consecutive ids. Booked devices are a bitset, their booker an interned user id and their booking time
+ * epoch millis, as is the end of its hold when it was booked for a limited time. Booking and returning
+ * only flip bits and write array slots, {@link Phone} DTOs are built on demand for the API and the read side.
+ * The devices each user holds are indexed as well, so a user's bookings are found without a scan: they are
+ * linked through two more device arrays, from the first device of the user.
+ * <p>
+ * Owned by a single actor, not thread-safe.
+ */
+public class DeviceInventory {
+
+    private static final int NO_USER = -1;
+    private static final int NO_DEVICE = -1;
+
+    // iterated for listings, so they keep the order of the former HashMap based store
+    private final Map<String, Integer> modelIds = new HashMap<>();
+    private String[] modelNames = new String[16];
+    private int[] firstDevice = new int[16];
+    private int[] units = new int[16];
+    private int[] availableUnits = new int[16];
+    private String[] technology = new String[16];
+    private String[] bands2g = new String[16];
+    private String[] bands3g = new String[16];
+    private String[] bands4g = new String[16];
+    private int modelCount;
+
+    private BitSet booked = new BitSet();
+    private int[] bookedBy = new int[16];
+    private long[] bookedAt = new long[16];
+    // 0 when the booking has no hold
+    private long[] holdUntil = new long[16];
+    private int[] modelOfDevice = new int[16];
+    // doubly linked list of the devices of each booker, the latest booking first
+    private int[] nextOfUser = new int[16];
+    private int[] prevOfUser = new int[16];
+    private int deviceCount;
+
+    private final Map<String, Integer> userIds = new HashMap<>();
+    private final List<String> userNames = new ArrayList<>();
+    // by user id, NO_DEVICE while the user holds no device
+    private int[] firstOfUser = new int[16];
+
+    /**
+     * Adds a model with the given number of units, all available. Adding a known model is a no-op.
+     */
+    public void addModel(String modelName, int unitCount) {
+        if (unitCount < 1)
+            throw new IllegalArgumentException("unitCount must be positive: " + unitCount);
+        if (modelIds.containsKey(modelName))
+            return;
+        if (modelCount == modelNames.length) {
+            int capacity = modelCount * 2;
+            modelNames = Arrays.copyOf(modelNames, capacity);
+            firstDevice = Arrays.copyOf(firstDevice, capacity);
+            units = Arrays.copyOf(units, capacity);
+            availableUnits = Arrays.copyOf(availableUnits, capacity);
+            technology = Arrays.copyOf(technology, capacity);
+            bands2g = Arrays.copyOf(bands2g, capacity);
+            bands3g = Arrays.copyOf(bands3g, capacity);
+            bands4g = Arrays.copyOf(bands4g, capacity);
+        }
+        if (deviceCount + unitCount > bookedBy.length) {
+            int capacity = Math.max(bookedBy.length * 2, deviceCount + unitCount);
+            bookedBy = Arrays.copyOf(bookedBy, capacity);
+            bookedAt = Arrays.copyOf(bookedAt, capacity);
+            holdUntil = Arrays.copyOf(holdUntil, capacity);
+            modelOfDevice = Arrays.copyOf(modelOfDevice, capacity);
+            nextOfUser = Arrays.copyOf(nextOfUser, capacity);
+            prevOfUser = Arrays.copyOf(prevOfUser, capacity);
+            BitSet grown = new BitSet(capacity);
+            grown.or(booked);
+            booked = grown;
+        }
+        int model = modelCount++;
+        modelIds.put(modelName, model);
+        modelNames[model] = modelName;
+        firstDevice[model] = deviceCount;
+        units[model] = unitCount;
+        availableUnits[model] = unitCount;
+        Arrays.fill(bookedBy, deviceCount, deviceCount + unitCount, NO_USER);
+        Arrays.fill(modelOfDevice, deviceCount, deviceCount + unitCount, model);
+        deviceCount += unitCount;
+    }
+
+    /**
+     * @return the model id, -1 for an unknown model
+     */
+    public int modelId(String modelName) {
+        Integer model = modelIds.get(modelName);
+        return model == null ? -1 : model;
+    }
+
+    public Iterable<String> modelNames() {
+        return modelIds.keySet();
+    }
+
+    public int modelCount() {
+        return modelCount;
+    }
+
+    public int deviceCount() {
+        return deviceCount;
+    }
+
+    public int units(int model) {
+        return units[model];
+    }
+
+    public int availableUnits(int model) {
+        return availableUnits[model];
+    }
+
+    public int firstDevice(int model) {
+        return firstDevice[model];
+    }
+
+    public int modelOf(int device) {
+        return modelOfDevice[device];
+    }
+
+    public String modelName(int model) {
+        return modelNames[model];
+    }
+
+    public boolean isBooked(int device) {
+        return booked.get(device);
+    }
+
+    /**
+     * The booker of the device, null when it is not booked.
+     */
+    public String bookedBy(int device) {
+        return bookedBy[device] == NO_USER ? null : userNames.get(bookedBy[device]);
+    }
+
+    public long holdUntil(int device) {
+        return holdUntil[device];
+    }
+
+    public void hold(int device, long untilEpochMillis) {
+        holdUntil[device] = untilEpochMillis;
+    }
+
+    public boolean hasDetails(int model) {
+        return technology[model] != null;
+    }
+
+    /**
+     * Books the first available unit of the model.
+     * @return the booked device, -1 when every unit is booked
+     */
+    public int book(int model, String user, long epochMillis) {
+        if (availableUnits[model] == 0)
+            return -1;
+        int device = booked.nextClearBit(firstDevice[model]);
+        booked.set(device);
+        bookedBy[device] = intern(user);
+        if (bookedBy[device] != NO_USER) {
+            int userId = bookedBy[device];
+            prevOfUser[device] = NO_DEVICE;
+            nextOfUser[device] = firstOfUser[userId];
+            if (firstOfUser[userId] != NO_DEVICE)
+                prevOfUser[firstOfUser[userId]] = device;
+            firstOfUser[userId] = device;
+        }
+        bookedAt[device] = epochMillis;
+        availableUnits[model]--;
+        return device;
+    }
+
+    /**
+     * Returns the first booked unit of the model.
+     * @return the returned device, -1 when no unit is booked
+     */
+    public int giveBack(int model) {
+        int device = firstBooked(model, null);
+        if (device >= 0)
+            release(device);
+        return device;
+    }
+
+    /**
+     * @param user only a unit booked by this user, any booked unit when null
+     * @return the first booked unit of the model, -1 when there is none
+     */
+    public int firstBooked(int model, String user) {
+        if (availableUnits[model] == units[model])
+            return -1;
+        Integer userId = user == null ? null : userIds.get(user);
+        if (user != null && userId == null)
+            return -1;
+        int end = firstDevice[model] + units[model];
+        for (int device = booked.nextSetBit(firstDevice[model]); device >= 0 && device < end; device = booked.nextSetBit(device + 1))
+            if (userId == null || bookedBy[device] == userId)
+                return device;
+        return -1;
+    }
+
+    public void release(int device) {
+        if (!booked.get(device))
+            return;
+        booked.clear(device);
+        if (bookedBy[device] != NO_USER) {
+            if (prevOfUser[device] != NO_DEVICE)
+                nextOfUser[prevOfUser[device]] = nextOfUser[device];
+            else
+                firstOfUser[bookedBy[device]] = nextOfUser[device];
+            if (nextOfUser[device] != NO_DEVICE)
+                prevOfUser[nextOfUser[device]] = prevOfUser[device];
+        }
+        bookedBy[device] = NO_USER;
+        bookedAt[device] = 0;
+        holdUntil[device] = 0;
+        availableUnits[modelOfDevice[device]]++;
+    }
+
+    /**
+     * The devices booked by the user, in ascending order.
+     */
+    public int[] devicesOf(String user) {
+        Integer userId = userIds.get(user);
+        if (userId == null)
+            return new int[0];
+        int count = 0;
+        for (int device = firstOfUser[userId]; device != NO_DEVICE; device = nextOfUser[device])
+            count++;
+        int[] devices = new int[count];
+        count = 0;
+        for (int device = firstOfUser[userId]; device != NO_DEVICE; device = nextOfUser[device])
+            devices[count++] = device;
+        Arrays.sort(devices);
+        return devices;
+    }
+
+    /**
+     * The models with a unit booked by the user, in name order.
+     */
+    public NavigableSet<String> modelsOf(String user) {
+        NavigableSet<String> models = new TreeSet<>();
+        for (int device : devicesOf(user))
+            models.add(modelNames[modelOfDevice[device]]);
+        return models;
+    }
+
+    public void setDetails(int model, String technology, String bands2g, String bands3g, String bands4g) {
+        this.technology[model] = technology;
+        this.bands2g[model] = bands2g;
+        this.bands3g[model] = bands3g;
+        this.bands4g[model] = bands4g;
+    }
+
+    /**
+     * The model as the API shows it. A single unit model carries the booking of its unit, a model with
+     * several units carries its unit counts instead.
+     */
+    public Phone toPhone(int model) {
+        Phone.PhoneBuilder phone = Phone.builder()
+                .modelName(modelNames[model])
+                .available(availableUnits[model] > 0)
+                .technology(technology[model])
+                ._2g_bands(bands2g[model])
+                ._3g_bands(bands3g[model])
+                ._4g_bands(bands4g[model]);
+        if (units[model] > 1)
+            return phone.units(units[model]).availableUnits(availableUnits[model]).build();
+        int device = firstDevice[model];
+        if (booked.get(device))
+            phone.bookedBy(bookedBy(device))
+                    .bookingDate(formatDate(bookedAt[device]))
+                    .holdUntil(holdUntil[device] == 0 ? null : formatDate(holdUntil[device]));
+        return phone.build();
+    }
+
+    public List<Phone> phones() {
+        List<Phone> phones = new ArrayList<>(modelCount);
+        for (int model : modelIds.values())
+            phones.add(toPhone(model));
+        return phones;
+    }
+
+    /**
+     * One single unit entry per booked device, plus one available entry for every model without bookings.
+     * Booking each entry that is not available again restores the state. The dates are instants, see
+     * {@link #formatInstant}.
+     */
+    public List<Phone> unitStates() {
+        List<Phone> states = new ArrayList<>(modelCount);
+        for (int model : modelIds.values()) {
+            if (availableUnits[model] == units[model]) {
+                states.add(unitState(firstDevice[model], DeviceInventory::formatInstant));
+                continue;
+            }
+            int end = firstDevice[model] + units[model];
+            for (int device = booked.nextSetBit(firstDevice[model]); device >= 0 && device < end; device = booked.nextSetBit(device + 1))
+                states.add(unitState(device, DeviceInventory::formatInstant));
+        }
+        return states;
+    }
+
+    /**
+     * The device as a single unit entry, with its booking.
+     */
+    public Phone unitState(int device) {
+        return unitState(device, DeviceInventory::formatDate);
+    }
+
+    private Phone unitState(int device, LongFunction<String> dates) {
+        int model = modelOfDevice[device];
+        Phone.PhoneBuilder phone = Phone.builder()
+                .modelName(modelNames[model])
+                .available(!booked.get(device))
+                .technology(technology[model])
+                ._2g_bands(bands2g[model])
+                ._3g_bands(bands3g[model])
+                ._4g_bands(bands4g[model]);
+        if (booked.get(device))
+            phone.bookedBy(bookedBy(device))
+                    .bookingDate(dates.apply(bookedAt[device]))
+                    .holdUntil(holdUntil[device] == 0 ? null : dates.apply(holdUntil[device]));
+        return phone.build();
+    }
+
+    private int intern(String user) {
+        if (user == null)
+            return NO_USER;
+        Integer id = userIds.get(user);
+        if (id == null) {
+            id = userNames.size();
+            userNames.add(user);
+            if (id == firstOfUser.length)
+                firstOfUser = Arrays.copyOf(firstOfUser, id * 2);
+            firstOfUser[id] = NO_DEVICE;
+            userIds.put(user, id);
+        }
+        return id;
+    }
+
+    // booking dates keep the local date time format of the API
+    public static String formatDate(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault()).toString();
+    }
+
+    public static long parseDate(String bookingDate) {
+        return LocalDateTime.parse(bookingDate).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    // the journal and its snapshots keep instants, a local date time is ambiguous in the repeated hour of a
+    // DST change and moves with the zone of the host
+    public static String formatInstant(long epochMillis) {
+        return Instant.ofEpochMilli(epochMillis).toString();
+    }
+
+    // journals written before keep local date times
+    public static long parseInstant(String date) {
+        return date.endsWith("Z") ? Instant.parse(date).toEpochMilli() : parseDate(date);
+    }
+}
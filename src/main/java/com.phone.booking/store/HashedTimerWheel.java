@@ -0,0 +1,107 @@
+package com.phone.booking.store;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Hashed timer wheel for deadlines of a fixed range of int ids, e.g. device ids.
+ * Every id is in at most one slot, the slots are doubly linked lists threaded through primitive arrays,
+ * so scheduling, rescheduling and cancelling are O(1) and allocate nothing. {@link #advance} visits one
+ * slot per elapsed tick; an id further ahead than one revolution stays in its slot until its tick comes.
+ * <p>
+ * Owned by a single actor, not thread-safe.
+ */
+public class HashedTimerWheel {
+
+    private static final int NONE = -1;
+
+    private final long tickMillis;
+    private final int mask;
+    private final int[] heads;
+    private final int[] next;
+    private final int[] previous;
+    // the tick an id expires at, NONE when it is not scheduled
+    private final long[] ticks;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param slots rounded up to a power of two
+     */
+    public HashedTimerWheel(int capacity, long tickMillis, int slots, long nowMillis) {
+        if (tickMillis < 1 || slots < 1)
+            throw new IllegalArgumentException("tickMillis and slots must be positive");
+        this.tickMillis = tickMillis;
+        int slotCount = Integer.highestOneBit(Math.max(slots - 1, 1)) << 1;
+        mask = slotCount - 1;
+        heads = new int[slotCount];
+        Arrays.fill(heads, NONE);
+        next = new int[capacity];
+        previous = new int[capacity];
+        ticks = new long[capacity];
+        Arrays.fill(ticks, NONE);
+        currentTick = nowMillis / tickMillis;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isScheduled(int id) {
+        return ticks[id] != NONE;
+    }
+
+    /**
+     * Schedules the id at the deadline, replacing a deadline it already had.
+     * A deadline in the past expires on the next {@link #advance}.
+     */
+    public void schedule(int id, long deadlineMillis) {
+        cancel(id);
+        long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+        int slot = (int) (tick & mask);
+        ticks[id] = tick;
+        previous[id] = NONE;
+        next[id] = heads[slot];
+        if (heads[slot] != NONE)
+            previous[heads[slot]] = id;
+        heads[slot] = id;
+        size++;
+    }
+
+    public void cancel(int id) {
+        if (ticks[id] == NONE)
+            return;
+        int slot = (int) (ticks[id] & mask);
+        if (previous[id] != NONE)
+            next[previous[id]] = next[id];
+        else
+            heads[slot] = next[id];
+        if (next[id] != NONE)
+            previous[next[id]] = previous[id];
+        ticks[id] = NONE;
+        size--;
+    }
+
+    /**
+     * Expires every id whose deadline is at or before now. The callback may schedule the expired id
+     * again but must leave other ids alone, the slot being visited is still walked.
+     */
+    public void advance(long nowMillis, IntConsumer expired) {
+        long nowTick = nowMillis / tickMillis;
+        // after a long pause every slot is visited once, which still reaches every due id
+        if (nowTick - currentTick > mask + 1)
+            currentTick = nowTick - mask - 1;
+        while (currentTick < nowTick) {
+            currentTick++;
+            int id = heads[(int) (currentTick & mask)];
+            while (id != NONE) {
+                int following = next[id];
+                if (ticks[id] <= currentTick) {
+                    cancel(id);
+                    expired.accept(id);
+                }
+                id = following;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.phone.booking.store;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Responses of the writes sent with an Idempotency-Key, so a retried write gets the original response
+ * instead of being applied again. Kept by the routes of a single node, and by the owner of each partition in a
+ * cluster so that a retry arriving on another node is answered alike. A key is reserved together with the
+ * response future before the write is asked, a retry arriving while the write is in flight waits for the same
+ * response.
+ * Bounded: the oldest keys are evicted once there are maxEntries, and every key expires after the ttl.
+ */
+public class IdempotencyCache<R> {
+
+    public record Cached<R>(Object request, CompletableFuture<R> response, long expiresAt) { }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    // in insertion order, which is also the order the keys expire in
+    private final LinkedHashMap<String, Cached<R>> entries = new LinkedHashMap<>();
+
+    public IdempotencyCache(int maxEntries, Duration ttl) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        this.maxEntries = maxEntries;
+        ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * Reserves the key for the request and its response unless the key is already taken.
+     * @return the entry of the key, null when it has been reserved by this call
+     */
+    public synchronized Cached<R> putIfAbsent(String key, Object request, CompletableFuture<R> response) {
+        long now = System.nanoTime();
+        evictExpired(now);
+        Cached<R> cached = entries.get(key);
+        if (cached != null)
+            return cached;
+        if (entries.size() == maxEntries) {
+            Iterator<Map.Entry<String, Cached<R>>> eldest = entries.entrySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        entries.put(key, new Cached<>(request, response, now + ttlNanos));
+        return null;
+    }
+
+    /**
+     * Frees the key, unless it has been reserved for another response meanwhile.
+     * Used for responses that must not be replayed, e.g. an overloaded service.
+     */
+    public synchronized void remove(String key, CompletableFuture<R> response) {
+        Cached<R> cached = entries.get(key);
+        if (cached != null && cached.response() == response)
+            entries.remove(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Cached<R>> oldest = entries.values().iterator();
+        while (oldest.hasNext() && oldest.next().expiresAt() - now <= 0)
+            oldest.remove();
+    }
+}
@@ -0,0 +1,171 @@
+package com.phone.booking.store;
+
+import com.phone.booking.models.Phone;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable, versioned copy of the phones owned by one booking actor.
+ * The phones are private copies, nothing mutates them once published. They are kept in a persistent trie of
+ * 32-way nodes indexed by the slot of the model, so {@link #with} copies the changed phone and the few nodes on
+ * its path while every other node is shared with the previous version.
+ */
+public final class InventorySnapshot {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private final long version;
+    // model name -> slot in the trie, shared by all versions built with with()
+    private final Map<String, Integer> slots;
+    private final Object[] root;
+    // BITS times the number of levels above the leaves
+    private final int shift;
+    private final Map<String, Phone> phones = new Phones();
+
+    private InventorySnapshot(long version, Map<String, Integer> slots, Object[] root, int shift) {
+        this.version = version;
+        this.slots = slots;
+        this.root = root;
+        this.shift = shift;
+    }
+
+    public static InventorySnapshot of(long version, Collection<Phone> phones) {
+        Map<String, Integer> slots = new HashMap<>();
+        List<Phone> copies = new ArrayList<>(phones.size());
+        for (Phone phone : phones) {
+            Integer slot = slots.putIfAbsent(phone.getModelName(), copies.size());
+            if (slot == null)
+                copies.add(phone.toBuilder().build());
+            else
+                copies.set(slot, phone.toBuilder().build());
+        }
+        int shift = 0;
+        while ((long) WIDTH << shift < copies.size())
+            shift += BITS;
+        return new InventorySnapshot(version, Collections.unmodifiableMap(slots),
+                build(copies.toArray(new Phone[0]), 0, shift), shift);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Unmodifiable, in the order the models were first given to {@link #of}.
+     */
+    public Map<String, Phone> phones() {
+        return phones;
+    }
+
+    // copy-on-write: only the changed phone and the nodes on its path are copied
+    public InventorySnapshot with(Phone phone) {
+        Integer slot = slots.get(phone.getModelName());
+        if (slot == null) {
+            // a model the partition did not have yet, rare enough to build the trie again
+            List<Phone> all = new ArrayList<>(phones.values());
+            all.add(phone);
+            return of(version + 1, all);
+        }
+        return new InventorySnapshot(version + 1, slots, set(root, shift, slot, phone.toBuilder().build()), shift);
+    }
+
+    private Phone phoneAt(int slot) {
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS)
+            node = (Object[]) node[(slot >>> level) & MASK];
+        return (Phone) node[slot & MASK];
+    }
+
+    private static Object[] build(Phone[] phones, int from, int level) {
+        Object[] node = new Object[WIDTH];
+        if (level == 0) {
+            System.arraycopy(phones, from, node, 0, Math.max(0, Math.min(WIDTH, phones.length - from)));
+            return node;
+        }
+        int childSlots = 1 << level;
+        for (int i = 0; i < WIDTH && from + (long) i * childSlots < phones.length; i++)
+            node[i] = build(phones, from + i * childSlots, level - BITS);
+        return node;
+    }
+
+    private static Object[] set(Object[] node, int level, int slot, Phone phone) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[slot & MASK] = phone;
+        } else {
+            int child = (slot >>> level) & MASK;
+            copy[child] = set((Object[]) node[child], level - BITS, slot, phone);
+        }
+        return copy;
+    }
+
+    // read-only map over the trie, lookups go through the shared slots
+    private final class Phones extends AbstractMap<String, Phone> {
+
+        private final Collection<Phone> values = new AbstractCollection<>() {
+            @Override
+            public Iterator<Phone> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < slots.size();
+                    }
+
+                    @Override
+                    public Phone next() {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+                        return phoneAt(next++);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return slots.size();
+            }
+        };
+
+        @Override
+        public Phone get(Object modelName) {
+            Integer slot = slots.get(modelName);
+            return slot == null ? null : phoneAt(slot);
+        }
+
+        @Override
+        public boolean containsKey(Object modelName) {
+            return slots.containsKey(modelName);
+        }
+
+        @Override
+        public int size() {
+            return slots.size();
+        }
+
+        @Override
+        public Collection<Phone> values() {
+            return values;
+        }
+
+        @Override
+        public Set<Entry<String, Phone>> entrySet() {
+            Map<String, Phone> entries = new HashMap<>(slots.size());
+            slots.forEach((modelName, slot) -> entries.put(modelName, phoneAt(slot)));
+            return Collections.unmodifiableMap(entries).entrySet();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.phone.booking.store;
+
+import akka.NotUsed;
+import akka.actor.ClassicActorSystemProvider;
+import akka.japi.Pair;
+import akka.stream.BoundedSourceQueue;
+import akka.stream.javadsl.BroadcastHub;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.phone.booking.models.Phone;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Live feed of the changed phones of every booking actor. The actors publish each changed phone, a single
+ * BroadcastHub fans the changes out to all subscribers. Every change carries the full phone and a sequence
+ * number; the most recent changes are retained so a subscriber resumes after the last change it has seen,
+ * and the latest change of every phone is kept so a new subscriber starts from a complete copy.
+ * <p>
+ * Publishing never blocks an actor. When the hub falls behind a change is dropped from the live stream,
+ * subscribers notice the gap and fill it from the retained changes.
+ */
+public class PhoneChangeFeed {
+
+    public record Change(long seqNr, Phone phone) { }
+
+    // merged into every subscription to look for changes the live stream missed
+    private static final Change CHECK = new Change(-1, null);
+
+    private final Change[] retained;
+    private final Map<String, Change> latest = new HashMap<>();
+    private final BoundedSourceQueue<Change> queue;
+    private final Source<Change, NotUsed> live;
+    private final Duration gapCheck;
+    // sequence numbers start over with the process, so the epoch tells a reconnecting client apart
+    private final long epoch = System.currentTimeMillis();
+    private volatile long seqNr;
+
+    public PhoneChangeFeed(ClassicActorSystemProvider system, int hubBuffer, int retainedChanges, Duration gapCheck) {
+        retained = new Change[retainedChanges];
+        this.gapCheck = gapCheck;
+        Pair<BoundedSourceQueue<Change>, Source<Change, NotUsed>> hub = Source.<Change>queue(hubBuffer)
+                .toMat(BroadcastHub.of(Change.class, hubBuffer), Keep.both())
+                .run(system);
+        queue = hub.first();
+        live = hub.second();
+        // without any subscriber the hub would back-pressure and the queue drop every change
+        live.runWith(Sink.ignore(), system);
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    public long seqNr() {
+        return seqNr;
+    }
+
+    /**
+     * Called by the booking actors; the phone must not be mutated afterwards.
+     */
+    public synchronized void publish(Phone phone) {
+        Change change = new Change(++seqNr, phone);
+        retained[(int) (change.seqNr() % retained.length)] = change;
+        latest.put(phone.getModelName(), change);
+        queue.offer(change);
+    }
+
+    /**
+     * The changes after the sequence number, followed by the live changes. When those changes are no longer
+     * retained, or the sequence number is negative, it starts with the latest change of every phone instead,
+     * so every phone is sent at least once. Materialize the source once, it starts at the moment it is created.
+     */
+    public Source<Change, NotUsed> changesAfter(long afterSeqNr) {
+        Resume start = resume(afterSeqNr);
+        return Source.from(start.changes()).concat(live
+                .merge(Source.tick(gapCheck, gapCheck, CHECK))
+                .statefulMapConcat(() -> {
+                    long[] last = {start.seqNr()};
+                    return change -> {
+                        if (change.seqNr() == last[0] + 1) {
+                            last[0] = change.seqNr();
+                            return List.of(change);
+                        }
+                        if (change.seqNr() <= last[0] && (change != CHECK || seqNr <= last[0]))
+                            return List.of();
+                        // dropped by the hub, or published before this subscriber was attached to it
+                        Resume gap = resume(last[0]);
+                        last[0] = gap.seqNr();
+                        return gap.changes();
+                    };
+                }));
+    }
+
+    private record Resume(long seqNr, List<Change> changes) { }
+
+    private synchronized Resume resume(long afterSeqNr) {
+        if (afterSeqNr >= 0 && afterSeqNr <= seqNr && seqNr - afterSeqNr <= retained.length) {
+            List<Change> changes = new ArrayList<>((int) (seqNr - afterSeqNr));
+            for (long next = afterSeqNr + 1; next <= seqNr; next++)
+                changes.add(retained[(int) (next % retained.length)]);
+            return new Resume(seqNr, changes);
+        }
+        List<Change> changes = new ArrayList<>(latest.values());
+        changes.sort(Comparator.comparingLong(Change::seqNr));
+        return new Resume(seqNr, changes);
+    }
+}
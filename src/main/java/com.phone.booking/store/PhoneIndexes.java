@@ -0,0 +1,76 @@
+package com.phone.booking.store;
+
+import com.phone.booking.messages.Messages;
+import com.phone.booking.models.Phone;
+
+import java.util.*;
+
+/**
+ * Secondary indexes over the phones of one booking actor, each a set of model names in sorted order so
+ * a query can resume after a cursor. Owned by the actor, which calls {@link #update} after every change
+ * of a phone. The bookers are not indexed: a model with several units does not show them, so a query by booker
+ * starts from the models the inventory has booked by the booker.
+ */
+public class PhoneIndexes {
+
+    // the indexed values of each phone, so the old entries can be removed after the phone has changed
+    private record Indexed(boolean available, String technology) { }
+
+    private final Map<String, Indexed> indexed = new HashMap<>();
+
+    private final NavigableSet<String> all = new TreeSet<>();
+    private final NavigableSet<String> available = new TreeSet<>();
+    private final NavigableSet<String> booked = new TreeSet<>();
+    private final Map<String, NavigableSet<String>> byTechnology = new HashMap<>();
+
+    public void update(Phone phone) {
+        String model = phone.getModelName();
+        Indexed current = new Indexed(phone.isAvailable(), phone.getTechnology());
+        Indexed previous = indexed.put(model, current);
+        if (current.equals(previous))
+            return;
+        if (previous != null) {
+            (previous.available() ? available : booked).remove(model);
+            removeFrom(byTechnology, previous.technology(), model);
+        }
+        all.add(model);
+        (current.available() ? available : booked).add(model);
+        addTo(byTechnology, current.technology(), model);
+    }
+
+    /**
+     * The smallest index that covers the query, starting after its cursor. A query by booker is answered from
+     * bookedModels, the models with a unit booked by the booker, and is null for other queries.
+     * Phones in it still have to be checked against the remaining filters.
+     */
+    public NavigableSet<String> candidates(Messages.PhoneQuery query, NavigableSet<String> bookedModels) {
+        NavigableSet<String> candidates = all;
+        if (query.bookedBy() != null) {
+            // a booker has few models, the other filters are checked on them
+            candidates = bookedModels;
+        } else {
+            if (query.available() != null)
+                candidates = smaller(candidates, query.available() ? available : booked);
+            if (query.technology() != null)
+                candidates = smaller(candidates, byTechnology.getOrDefault(query.technology(), Collections.emptyNavigableSet()));
+        }
+        return query.cursor() == null ? candidates : candidates.tailSet(query.cursor(), false);
+    }
+
+    private static NavigableSet<String> smaller(NavigableSet<String> a, NavigableSet<String> b) {
+        return b.size() < a.size() ? b : a;
+    }
+
+    private static void addTo(Map<String, NavigableSet<String>> index, String key, String model) {
+        if (key != null)
+            index.computeIfAbsent(key, k -> new TreeSet<>()).add(model);
+    }
+
+    private static void removeFrom(Map<String, NavigableSet<String>> index, String key, String model) {
+        if (key == null)
+            return;
+        NavigableSet<String> models = index.get(key);
+        if (models != null && models.remove(model) && models.isEmpty())
+            index.remove(key);
+    }
+}
@@ -0,0 +1,147 @@
+package com.phone.booking.store;
+
+import com.phone.booking.models.Phone;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Read side of the booking actors. Each actor publishes an {@link InventorySnapshot} of its partition
+ * after every mutation, routes read the latest snapshots directly without an ask round-trip.
+ * Reads are wait-free: a single volatile read per partition.
+ */
+public class PhoneInventoryView {
+
+    private final AtomicReferenceArray<InventorySnapshot> partitions;
+    private final AtomicReferenceArray<PhoneSearchIndex> searchIndexes;
+    // startup enrichment progress of every partition
+    private final AtomicIntegerArray enriched;
+    private final AtomicIntegerArray toEnrich;
+    // null when nobody streams the changes
+    private final PhoneChangeFeed changes;
+    // versions start over with every process and on every node of a cluster, the epoch tells their states apart
+    private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+
+    public PhoneInventoryView(int partitionCount) {
+        this(partitionCount, null);
+    }
+
+    public PhoneInventoryView(int partitionCount, PhoneChangeFeed changes) {
+        this.changes = changes;
+        partitions = new AtomicReferenceArray<>(partitionCount);
+        searchIndexes = new AtomicReferenceArray<>(partitionCount);
+        enriched = new AtomicIntegerArray(partitionCount);
+        toEnrich = new AtomicIntegerArray(partitionCount);
+    }
+
+    public static int partitionOf(String modelName, int partitionCount) {
+        return Math.floorMod(modelName.hashCode(), partitionCount);
+    }
+
+    public int partitionCount() {
+        return partitions.length();
+    }
+
+    public String epoch() {
+        return epoch;
+    }
+
+    public PhoneChangeFeed changes() {
+        return changes;
+    }
+
+    public void publish(int partition, InventorySnapshot snapshot) {
+        partitions.set(partition, snapshot);
+    }
+
+    public void publishSearchIndex(int partition, PhoneSearchIndex index) {
+        searchIndexes.set(partition, index);
+    }
+
+    /**
+     * Latest search index of every partition, null until all partitions have published one.
+     */
+    public List<PhoneSearchIndex> searchIndexes() {
+        List<PhoneSearchIndex> indexes = new ArrayList<>(searchIndexes.length());
+        for (int i = 0; i < searchIndexes.length(); i++) {
+            PhoneSearchIndex index = searchIndexes.get(i);
+            if (index == null)
+                return null;
+            indexes.add(index);
+        }
+        return indexes;
+    }
+
+    public void reportEnrichment(int partition, int enrichedPhones, int phonesToEnrich) {
+        toEnrich.set(partition, phonesToEnrich);
+        enriched.set(partition, enrichedPhones);
+    }
+
+    public int enriched() {
+        int sum = 0;
+        for (int i = 0; i < enriched.length(); i++)
+            sum += enriched.get(i);
+        return sum;
+    }
+
+    public int toEnrich() {
+        int sum = 0;
+        for (int i = 0; i < toEnrich.length(); i++)
+            sum += toEnrich.get(i);
+        return sum;
+    }
+
+    /**
+     * Ready once every partition has finished its startup enrichment and published its first snapshot.
+     */
+    public boolean isReady() {
+        for (int i = 0; i < partitions.length(); i++)
+            if (partitions.get(i) == null)
+                return false;
+        return true;
+    }
+
+    /**
+     * Snapshot of the partition owning the model, null until that partition has been published.
+     */
+    public InventorySnapshot snapshotOf(String modelName) {
+        return partitions.get(partitionOf(modelName, partitions.length()));
+    }
+
+    /**
+     * Latest snapshot of every partition, null until all partitions have been published.
+     */
+    public List<InventorySnapshot> snapshots() {
+        List<InventorySnapshot> snapshots = new ArrayList<>(partitions.length());
+        for (int i = 0; i < partitions.length(); i++) {
+            InventorySnapshot snapshot = partitions.get(i);
+            if (snapshot == null)
+                return null;
+            snapshots.add(snapshot);
+        }
+        return snapshots;
+    }
+
+    public static Collection<Phone> phones(List<InventorySnapshot> snapshots) {
+        if (snapshots.size() == 1)
+            return snapshots.get(0).phones().values();
+        List<Phone> phones = new ArrayList<>();
+        snapshots.forEach(snapshot -> phones.addAll(snapshot.phones().values()));
+        return phones;
+    }
+
+    // the versions of all partitions together identify the published state
+    public static String version(List<InventorySnapshot> snapshots) {
+        StringBuilder version = new StringBuilder();
+        for (InventorySnapshot snapshot : snapshots) {
+            if (!version.isEmpty())
+                version.append('-');
+            version.append(snapshot.version());
+        }
+        return version.toString();
+    }
+}
@@ -0,0 +1,165 @@
+package com.phone.booking.store;
+
+import com.phone.booking.models.Phone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Case-insensitive search over the model names and fono technology of the phones of one booking actor.
+ * A query shorter than three characters matches phones with a word starting with it: the first one and two
+ * characters of every word, a prefix trie cut off at the depth where trigrams take over, each have a
+ * posting list of their phones. A longer query matches phones containing it: a query trigram missing from
+ * the index rules out every phone, otherwise the phones of its rarest trigram are checked for the whole query.
+ * Posting lists are sorted arrays of phones, found by a binary search over the sorted keys, so a query
+ * allocates little more than its result.
+ * <p>
+ * Immutable, so the routes search it without locking; a booking actor publishes a new one when the
+ * details of its phones change.
+ */
+public class PhoneSearchIndex {
+
+    private static final int GRAM = 3;
+    // keys of word prefixes are tagged with their length, trigram keys use the low 48 bits only
+    private static final long PREFIX_TAG = 1L << 48;
+
+    // documents are the phones in model name order, so matches come out sorted
+    private final String[] names;
+    // folded model name and technology, checked against the query
+    private final String[] texts;
+    // trigrams and word prefixes
+    private final long[] keys;
+    // postings of keys[i] are postings[postingStarts[i]] until postings[postingStarts[i + 1]]
+    private final int[] postingStarts;
+    private final int[] postings;
+
+    public static PhoneSearchIndex of(Collection<Phone> phones) {
+        return new PhoneSearchIndex(phones);
+    }
+
+    private PhoneSearchIndex(Collection<Phone> phones) {
+        List<Phone> sorted = new ArrayList<>(phones);
+        sorted.sort(Comparator.comparing(Phone::getModelName));
+        names = new String[sorted.size()];
+        texts = new String[sorted.size()];
+        Map<Long, List<Integer>> keyDocs = new HashMap<>();
+        for (int doc = 0; doc < sorted.size(); doc++) {
+            Phone phone = sorted.get(doc);
+            names[doc] = phone.getModelName();
+            String name = fold(phone.getModelName());
+            String technology = phone.getTechnology() == null ? "" : fold(phone.getTechnology());
+            // the separator keeps a query from matching across the two fields
+            texts[doc] = technology.isEmpty() ? name : name + '\n' + technology;
+            for (String field : new String[]{name, technology}) {
+                for (int i = 0; i < field.length(); i++) {
+                    if (field.charAt(i) != ' ' && (i == 0 || field.charAt(i - 1) == ' ')) {
+                        for (int length = 1; length < GRAM && i + length <= field.length(); length++)
+                            post(keyDocs, prefix(field, i, length), doc);
+                    }
+                }
+                for (int i = 0; i + GRAM <= field.length(); i++)
+                    post(keyDocs, gram(field, i), doc);
+            }
+        }
+
+        keys = keyDocs.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        postingStarts = new int[keys.length + 1];
+        postings = new int[keyDocs.values().stream().mapToInt(List::size).sum()];
+        int position = 0;
+        for (int i = 0; i < keys.length; i++) {
+            postingStarts[i] = position;
+            for (int doc : keyDocs.get(keys[i]))
+                postings[position++] = doc;
+        }
+        postingStarts[keys.length] = position;
+    }
+
+    // documents are added in ascending order, so every posting list ends up sorted and free of duplicates
+    private static void post(Map<Long, List<Integer>> keyDocs, long key, int doc) {
+        List<Integer> docs = keyDocs.computeIfAbsent(key, k -> new ArrayList<>());
+        if (docs.isEmpty() || docs.get(docs.size() - 1) != doc)
+            docs.add(doc);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return the model names of at most limit matching phones, in model name order
+     */
+    public List<String> search(String query, int limit) {
+        String folded = fold(query.strip());
+        if (folded.isEmpty() || limit < 1)
+            return List.of();
+        return folded.length() < GRAM ? searchPrefix(folded, limit) : searchGrams(folded, limit);
+    }
+
+    /**
+     * Searches the indexes of every partition.
+     * @return the model names of at most limit matching phones, in model name order
+     */
+    public static List<String> search(List<PhoneSearchIndex> indexes, String query, int limit) {
+        if (indexes.size() == 1)
+            return indexes.get(0).search(query, limit);
+        List<String> matches = new ArrayList<>();
+        for (PhoneSearchIndex index : indexes)
+            matches.addAll(index.search(query, limit));
+        matches.sort(Comparator.naturalOrder());
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    private List<String> searchPrefix(String prefix, int limit) {
+        int key = Arrays.binarySearch(keys, prefix(prefix, 0, prefix.length()));
+        if (key < 0)
+            return List.of();
+        List<String> matches = new ArrayList<>(Math.min(limit, postingCount(key)));
+        for (int p = postingStarts[key]; p < postingStarts[key + 1] && matches.size() < limit; p++)
+            matches.add(names[postings[p]]);
+        return matches;
+    }
+
+    private List<String> searchGrams(String query, int limit) {
+        // checking the few candidates directly is cheaper than intersecting with the longer posting lists
+        int rarest = -1;
+        for (int i = 0; i + GRAM <= query.length(); i++) {
+            int gram = Arrays.binarySearch(keys, gram(query, i));
+            if (gram < 0)
+                return List.of();
+            if (rarest < 0 || postingCount(gram) < postingCount(rarest))
+                rarest = gram;
+        }
+        List<String> matches = new ArrayList<>();
+        for (int p = postingStarts[rarest]; p < postingStarts[rarest + 1] && matches.size() < limit; p++) {
+            int doc = postings[p];
+            if (texts[doc].contains(query))
+                matches.add(names[doc]);
+        }
+        return matches;
+    }
+
+    private int postingCount(int gram) {
+        return postingStarts[gram + 1] - postingStarts[gram];
+    }
+
+    private static long gram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    private static long prefix(String text, int start, int length) {
+        long key = PREFIX_TAG * length;
+        for (int i = 0; i < length; i++)
+            key |= (long) text.charAt(start + i) << (16 * (length - 1 - i));
+        return key;
+    }
+
+    private static String fold(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+}
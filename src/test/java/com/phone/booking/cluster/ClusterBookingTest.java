@@ -0,0 +1,141 @@
+package com.phone.booking.cluster;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.cluster.MemberStatus;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+import com.phone.booking.messages.Commands;
+import com.phone.booking.messages.Messages;
+import com.phone.booking.models.Phone;
+import com.phone.booking.store.InventorySnapshot;
+import com.phone.booking.store.PhoneInventoryView;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static com.phone.booking.Status.conflict;
+import static com.phone.booking.Status.success;
+import static com.phone.booking.Status.unavailable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// two nodes of one cluster in this JVM, talking over loopback
+public class ClusterBookingTest {
+
+    private static final Config config = ConfigFactory.parseString(
+            "akka.actor.provider = cluster\n"
+                    + "akka.remote.artery.canonical.hostname = \"127.0.0.1\"\n"
+                    + "akka.remote.artery.canonical.port = 0\n"
+                    + "akka.cluster.jmx.multi-mbeans-in-same-jvm = on\n"
+                    + "akka.cluster.sharding.passivation.strategy = none\n"
+                    + "akka.cluster.distributed-data.gossip-interval = 200ms\n"
+                    + "akka.cluster.distributed-data.notify-subscribers-interval = 100ms\n"
+                    + "my-app.booking.shards = 2\n"
+                    + "my-app.cluster.enabled = on\n")
+            .withFallback(ConfigFactory.load());
+
+    private static final ActorTestKit node1 = ActorTestKit.create("phone-booking", config);
+    private static final ActorTestKit node2 = ActorTestKit.create("phone-booking", config);
+    private static final List<String> phones = node1.system().settings().config().getStringList("my-app.phones");
+    private static final PhoneInventoryView view1 = new PhoneInventoryView(2);
+    private static final PhoneInventoryView view2 = new PhoneInventoryView(2);
+    private static ActorRef<Commands.Command> service1;
+    private static ActorRef<Commands.Command> service2;
+
+    @BeforeClass
+    public static void formCluster() {
+        Cluster cluster1 = Cluster.get(node1.system());
+        cluster1.manager().tell(Join.create(cluster1.selfMember().address()));
+        Cluster.get(node2.system()).manager().tell(Join.create(cluster1.selfMember().address()));
+        node1.createTestProbe().awaitAssert(Duration.ofSeconds(15), () -> {
+            assertEquals(MemberStatus.up(), cluster1.selfMember().status());
+            assertEquals(MemberStatus.up(), Cluster.get(node2.system()).selfMember().status());
+            return null;
+        });
+
+        service1 = node1.spawn(BookingCluster.create(phones, 2, view1));
+        service2 = node2.spawn(BookingCluster.create(phones, 2, view2));
+        node1.createTestProbe().awaitAssert(Duration.ofSeconds(15), () -> {
+            assertTrue(view1.isReady());
+            assertTrue(view2.isReady());
+            return null;
+        });
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        node2.shutdownTestKit();
+        node1.shutdownTestKit();
+    }
+
+    @Test
+    public void testBookingIsOwnedByOneNodeAndReplicatedToTheOther() {
+        TestProbe<Messages.BookingResponse<?>> probe1 = node1.createTestProbe();
+        TestProbe<Messages.BookingResponse<?>> probe2 = node2.createTestProbe();
+
+        service1.tell(new Commands.BookPhone("Oneplus 9", "Jane Doe", probe1.getRef()));
+        assertEquals(success, probe1.receiveMessage(Duration.ofSeconds(10)).status());
+
+        // the same owner answers, whichever node the request came in on
+        service2.tell(new Commands.BookPhone("Oneplus 9", "John Doe", probe2.getRef()));
+        Messages.BookingResponse<?> rejected = probe2.receiveMessage(Duration.ofSeconds(10));
+        assertEquals(unavailable, rejected.status());
+        assertEquals("Phone is already booked.", rejected.data());
+
+        probe2.awaitAssert(Duration.ofSeconds(10), () -> {
+            InventorySnapshot snapshot = view2.snapshotOf("Oneplus 9");
+            assertFalse(snapshot.phones().get("Oneplus 9").isAvailable());
+            assertEquals("Jane Doe", snapshot.phones().get("Oneplus 9").getBookedBy());
+            return null;
+        });
+    }
+
+    @Test
+    public void testWritesAreReadBackOnTheNodeTheyCameThrough() {
+        TestProbe<Messages.BookingResponse<?>> probe = node2.createTestProbe();
+
+        service2.tell(new Commands.BookPhone("Apple iPhone 11", "Jane Doe", probe.getRef()));
+        assertEquals(success, probe.receiveMessage(Duration.ofSeconds(10)).status());
+
+        // no waiting for gossip, the replica of node2 applied the reply of the owner
+        service2.tell(new Commands.GetPhoneDetails("Apple iPhone 11", probe.getRef()));
+        Phone phone = (Phone) probe.receiveMessage(Duration.ofSeconds(10)).data();
+        assertFalse(phone.isAvailable());
+        assertEquals("Jane Doe", phone.getBookedBy());
+    }
+
+    @Test
+    public void testIdempotencyKeyHoldsAcrossNodes() {
+        TestProbe<Messages.BookingResponse<?>> probe1 = node1.createTestProbe();
+        TestProbe<Messages.BookingResponse<?>> probe2 = node2.createTestProbe();
+
+        service1.tell(new Commands.BookPhone("Apple iPhone 12", "Jane Doe", null, "book-12", probe1.getRef()));
+        Messages.BookingResponse<?> booked = probe1.receiveMessage(Duration.ofSeconds(10));
+        assertEquals(success, booked.status());
+
+        // the retry comes in on the other node and gets the first response instead of being rejected as booked
+        service2.tell(new Commands.BookPhone("Apple iPhone 12", "Jane Doe", null, "book-12", probe2.getRef()));
+        assertEquals(booked, probe2.receiveMessage(Duration.ofSeconds(10)));
+
+        service2.tell(new Commands.BookPhone("Apple iPhone 12", "John Doe", null, "book-12", probe2.getRef()));
+        assertEquals(conflict, probe2.receiveMessage(Duration.ofSeconds(10)).status());
+    }
+
+    @Test
+    public void testReadsAreServedFromTheLocalReplica() {
+        TestProbe<Messages.BookingResponse<?>> probe = node2.createTestProbe();
+
+        service2.tell(new Commands.GetAllPhones(probe.getRef()));
+        Messages.BookingResponse<?> response = probe.receiveMessage(Duration.ofSeconds(10));
+        assertEquals(success, response.status());
+        assertEquals(phones.size(), ((List<?>) response.data()).size());
+    }
+}
@@ -0,0 +1,77 @@
+package com.phone.booking.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BookingHistoryTest {
+
+    private static final long HOUR = Duration.ofHours(1).toMillis();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testQueryByUserAndRange() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        try (BookingHistory history = new BookingHistory(dir, "BookingService", Duration.ofHours(1), Duration.ofDays(1))) {
+            history.load(0);
+            history.append(10, BookingHistory.Entry.BOOKED, "Nokia 3310", "John Doe");
+            history.append(20, BookingHistory.Entry.BOOKED, "Oneplus 9", "Jane Doe");
+            history.append(2 * HOUR + 10, BookingHistory.Entry.RETURNED, "Nokia 3310", "John Doe");
+
+            assertEquals(2, history.query("John Doe", 0, 3 * HOUR).size());
+            List<BookingHistory.Entry> later = history.query("John Doe", HOUR, 3 * HOUR);
+            assertEquals(1, later.size());
+            assertEquals(BookingHistory.Entry.RETURNED, later.get(0).type());
+            assertTrue(history.query("Nobody", 0, 3 * HOUR).isEmpty());
+        }
+
+        // one file per segment, loaded again on start
+        try (BookingHistory history = new BookingHistory(dir, "BookingService", Duration.ofHours(1), Duration.ofDays(1))) {
+            history.load(3 * HOUR);
+            assertEquals(2, Files.list(dir).count());
+            assertEquals(2, history.query("John Doe", 0, 3 * HOUR).size());
+        }
+    }
+
+    @Test
+    public void testSegmentsPastRetentionAreDeleted() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        try (BookingHistory history = new BookingHistory(dir, "BookingService", Duration.ofHours(1), Duration.ofHours(2))) {
+            history.load(0);
+            history.append(10, BookingHistory.Entry.BOOKED, "Nokia 3310", "John Doe");
+            history.flush();
+            history.append(5 * HOUR, BookingHistory.Entry.RETURNED, "Nokia 3310", "John Doe");
+            history.flush();
+
+            assertEquals(1, Files.list(dir).count());
+            assertEquals(1, history.query("John Doe", 0, 6 * HOUR).size());
+        }
+    }
+
+    @Test
+    public void testSegmentsExpireWhileNothingIsAppended() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        try (BookingHistory history = new BookingHistory(dir, "BookingService", Duration.ofHours(1), Duration.ofHours(2))) {
+            history.load(0);
+            history.append(10, BookingHistory.Entry.BOOKED, "Nokia 3310", "John Doe");
+            history.flush();
+
+            BookingHistory.Write write = history.takeBuffered(5 * HOUR);
+            assertTrue(write.entries().isEmpty());
+            assertEquals(List.of(0L), write.expiredSegments());
+            history.write(write);
+            assertEquals(0, Files.list(dir).count());
+            assertTrue(history.query("John Doe", 0, 6 * HOUR).isEmpty());
+        }
+    }
+}
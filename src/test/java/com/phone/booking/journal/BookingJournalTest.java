@@ -0,0 +1,112 @@
+package com.phone.booking.journal;
+
+import com.phone.booking.models.Phone;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BookingJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecoverReplaysFlushedEvents() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        try (BookingJournal journal = new BookingJournal(dir, "BookingService", 100)) {
+            journal.recover();
+            journal.append(BookingJournal.Event.BOOKED, "Nokia 3310", "John Doe", "2023-01-01T10:00");
+            journal.append(BookingJournal.Event.RETURNED, "Nokia 3310", null, null);
+        }
+
+        try (BookingJournal journal = new BookingJournal(dir, "BookingService", 100)) {
+            BookingJournal.Recovery recovery = journal.recover();
+            assertNull(recovery.snapshot());
+            assertEquals(2, recovery.events().size());
+            assertEquals("John Doe", recovery.events().get(0).bookedBy());
+            assertEquals(2, recovery.events().get(1).seqNr());
+        }
+    }
+
+    @Test
+    public void testRecoverOnlyReplaysTailAfterSnapshot() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Phone phone = Phone.builder().modelName("Nokia 3310").available(false).bookedBy("John Doe").build();
+        try (BookingJournal journal = new BookingJournal(dir, "BookingService", 1)) {
+            journal.recover();
+            journal.append(BookingJournal.Event.BOOKED, "Nokia 3310", "John Doe", "2023-01-01T10:00");
+            assertTrue(journal.snapshotDue());
+            journal.saveSnapshot(List.of(phone));
+            journal.append(BookingJournal.Event.RETURNED, "Nokia 3310", null, null);
+        }
+
+        try (BookingJournal journal = new BookingJournal(dir, "BookingService", 1)) {
+            BookingJournal.Recovery recovery = journal.recover();
+            assertEquals(1, recovery.snapshot().seqNr());
+            assertEquals("John Doe", recovery.snapshot().phones().get(0).getBookedBy());
+            assertEquals(1, recovery.events().size());
+            assertEquals(BookingJournal.Event.RETURNED, recovery.events().get(0).type());
+        }
+    }
+
+    @Test
+    public void testEventsAppendedDuringWriteAreKept() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Phone phone = Phone.builder().modelName("Nokia 3310").available(false).bookedBy("John Doe").build();
+        try (BookingJournal journal = new BookingJournal(dir, "BookingService", 1)) {
+            journal.recover();
+            journal.append(BookingJournal.Event.BOOKED, "Nokia 3310", "John Doe", "2023-01-01T10:00");
+            BookingJournal.Write write = journal.takeBuffered(List.of(phone));
+            // appended while the write is in flight, not covered by its snapshot
+            journal.append(BookingJournal.Event.RETURNED, "Nokia 3310", null, null);
+            journal.write(write);
+        }
+
+        try (BookingJournal journal = new BookingJournal(dir, "BookingService", 1)) {
+            BookingJournal.Recovery recovery = journal.recover();
+            assertEquals(1, recovery.snapshot().seqNr());
+            assertEquals(1, recovery.events().size());
+            assertEquals(2, recovery.events().get(0).seqNr());
+        }
+    }
+
+    @Test
+    public void testRecoverDropsTornTail() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Files.writeString(dir.resolve("BookingService.journal"),
+                "{\"seqNr\":1,\"type\":\"booked\",\"modelName\":\"Nokia 3310\",\"bookedBy\":\"John Doe\"}\n{\"seqNr\":2,\"ty");
+
+        try (BookingJournal journal = new BookingJournal(dir, "BookingService", 100)) {
+            assertEquals(1, journal.recover().events().size());
+            journal.append(BookingJournal.Event.RETURNED, "Nokia 3310", null, null);
+        }
+
+        try (BookingJournal journal = new BookingJournal(dir, "BookingService", 100)) {
+            assertEquals(2, journal.recover().events().size());
+        }
+    }
+
+    @Test
+    public void testRecoverSkipsTornLinesAndRewrittenEvents() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        String booked = "{\"seqNr\":1,\"type\":\"booked\",\"modelName\":\"Nokia 3310\",\"bookedBy\":\"John Doe\"}\n";
+        String returned = "{\"seqNr\":2,\"type\":\"returned\",\"modelName\":\"Nokia 3310\"}\n";
+        // a failed write that could not be undone, written again by the next flush
+        Files.writeString(dir.resolve("BookingService.journal"), booked + "{\"seqNr\":2,\"ty\n" + booked + returned);
+
+        try (BookingJournal journal = new BookingJournal(dir, "BookingService", 100)) {
+            List<BookingJournal.Event> events = journal.recover().events();
+            assertEquals(2, events.size());
+            assertEquals(1, events.get(0).seqNr());
+            assertEquals(2, events.get(1).seqNr());
+        }
+        assertEquals(booked + returned, Files.readString(dir.resolve("BookingService.journal")));
+    }
+}
@@ -0,0 +1,42 @@
+package com.phone.booking.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsStayWithinOneSixteenth() {
+        for (long value : new long[]{0, 15, 16, 17, 1_000, 123_456, 5_000_000_000L, Long.MAX_VALUE}) {
+            long upperBound = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value));
+            assertTrue(upperBound >= value);
+            assertTrue(upperBound - value <= value / 16);
+        }
+    }
+
+    @Test
+    public void testQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i * 1_000L);
+
+        assertEquals(1000, histogram.count());
+        assertEquals(500_500_000L, histogram.sumNanos());
+        assertEquals(500_000, histogram.quantile(0.5), 500_000 / 16.0);
+        assertEquals(990_000, histogram.quantile(0.99), 990_000 / 16.0);
+        assertEquals(1_000_000, histogram.quantile(0.999), 1_000_000 / 16.0);
+    }
+
+    @Test
+    public void testRenderPrometheusText() {
+        Metrics metrics = new Metrics();
+        metrics.counter("requests_total", "Requests", "route", "book").add(3);
+        metrics.gauge("queue_depth", "Depth", () -> 7);
+
+        String text = metrics.render();
+        assertTrue(text.contains("# TYPE requests_total counter\nrequests_total{route=\"book\"} 3\n"));
+        assertTrue(text.contains("queue_depth 7\n"));
+    }
+}
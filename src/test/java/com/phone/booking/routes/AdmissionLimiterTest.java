@@ -0,0 +1,33 @@
+package com.phone.booking.routes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionLimiterTest {
+
+    @Test
+    public void testRejectsBeyondLimitUntilReleased() {
+        AdmissionLimiter limiter = new AdmissionLimiter(2);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.inFlight());
+        assertEquals(1, limiter.rejected());
+
+        limiter.release();
+        assertTrue(limiter.tryAcquire());
+        assertEquals(2, limiter.inFlight());
+    }
+
+    @Test
+    public void testWaitingCallersAreNotCountedAsRejected() {
+        AdmissionLimiter limiter = new AdmissionLimiter(0);
+        assertFalse(limiter.tryAcquireUncounted());
+        assertEquals(0, limiter.rejected());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(1, limiter.rejected());
+    }
+}
@@ -8,19 +8,28 @@ import akka.actor.testkit.typed.javadsl.TestProbe;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
 import akka.actor.typed.javadsl.Adapter;
+import akka.http.javadsl.model.HttpEntities;
 import akka.http.javadsl.model.HttpRequest;
 import akka.http.javadsl.model.MediaTypes;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.ETag;
+import akka.http.javadsl.model.headers.RawHeader;
 import akka.http.javadsl.testkit.JUnitRouteTest;
 import akka.http.javadsl.testkit.TestRoute;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.phone.booking.messages.Commands;
+import com.phone.booking.messages.Messages;
 import com.phone.booking.service.BookingService;
+import com.phone.booking.store.PhoneInventoryView;
+import com.typesafe.config.ConfigFactory;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import static org.junit.Assert.*;
+
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class BookingsRouteTest extends JUnitRouteTest {
 
@@ -29,6 +38,7 @@ public class BookingsRouteTest extends JUnitRouteTest {
     ActorRef<Commands.Command> bookingServiceActor;
     TestProbe<Commands.Command> probe;
     TestRoute appRoute;
+    PhoneInventoryView view;
 
     @Before
     public void setup() {
@@ -37,8 +47,9 @@ public class BookingsRouteTest extends JUnitRouteTest {
             system = Adapter.toTyped(system());
             probe = TestProbe.create(system);
             testKit = ActorTestKit.create(system);
-            bookingServiceActor = testKit.spawn(BookingService.create(system.settings().config().getStringList("my-app.phones")));
-            BookingsRoute bookingsRoute = new BookingsRoute(system, bookingServiceActor);
+            view = new PhoneInventoryView(1);
+            bookingServiceActor = testKit.spawn(BookingService.create(system.settings().config().getStringList("my-app.phones"), view, 0));
+            BookingsRoute bookingsRoute = new BookingsRoute(system, bookingServiceActor, view);
             appRoute = testRoute(bookingsRoute.routes());
     }
 
@@ -113,4 +124,236 @@ public class BookingsRouteTest extends JUnitRouteTest {
                 .assertEntity("{\"data\":\"Thank you!\",\"status\":\"success\"}");
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCase8_GetAllPhones_NotModified() {
+        probe.awaitAssert(() -> {
+            assertNotNull(view.snapshots());
+            return null;
+        });
+        ETag etag = appRoute.run(HttpRequest.GET("/phones"))
+                .assertStatusCode(StatusCodes.OK)
+                .response().getHeader(ETag.class).orElseThrow();
+        // the version alone would repeat after a restart
+        assertTrue(etag.etag().tag().startsWith(view.epoch() + "-"));
+
+        appRoute.run(HttpRequest.GET("/phones")
+                        .addHeader(RawHeader.create("If-None-Match", "\"" + etag.etag().tag() + "\"")))
+                .assertStatusCode(StatusCodes.NOT_MODIFIED);
+
+        appRoute.run(HttpRequest.PUT("/phones/return/Nokia%203310"))
+                .assertStatusCode(StatusCodes.OK);
+        appRoute.run(HttpRequest.GET("/phones")
+                        .addHeader(RawHeader.create("If-None-Match", "\"" + etag.etag().tag() + "\"")))
+                .assertStatusCode(StatusCodes.OK);
+    }
+
+    @Test
+    public void testCase9_QueryPhones_ByAvailability() {
+        appRoute.run(HttpRequest.PUT("/phones/book")
+                        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"bookedBy\":\"John Doe\", \"modelName\": \"Motorola Nexus 6\"}"))
+                .assertStatusCode(StatusCodes.OK);
+
+        String body = appRoute.run(HttpRequest.GET("/phones?available=false&limit=5"))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString();
+        assertTrue(body.contains("\"modelName\":\"Motorola Nexus 6\""));
+        assertFalse(body.contains("Nokia 3310"));
+
+        appRoute.run(HttpRequest.GET("/phones?limit=0"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+    }
+
+    @Test
+    public void testCase9_StreamPhones() {
+        String[] lines = appRoute.run(HttpRequest.GET("/phones/stream?limit=2"))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString()
+                .split("\n");
+        assertEquals(9, lines.length);
+        assertTrue(lines[0].contains("\"modelName\":\"2x Samsung Galaxy S8\""));
+    }
+
+    @Test
+    public void testCase10_BatchBooking() {
+        appRoute.run(HttpRequest.PUT("/phones/batch")
+                        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"operations\":[" +
+                                "{\"action\":\"book\",\"modelName\":\"Nokia 3310\",\"bookedBy\":\"John Doe\"}," +
+                                "{\"action\":\"book\",\"modelName\":\"Invalid Model\",\"bookedBy\":\"John Doe\"}]}"))
+                .assertStatusCode(StatusCodes.OK)
+                .assertEntity("{\"data\":[" +
+                        "{\"action\":\"book\",\"message\":\"Phone booked successfully.\",\"modelName\":\"Nokia 3310\",\"status\":\"success\"}," +
+                        "{\"action\":\"book\",\"message\":\"Phone not found.\",\"modelName\":\"Invalid Model\",\"status\":\"notFound\"}]," +
+                        "\"status\":\"success\"}");
+
+        // the already booked phone rejects the whole atomic batch, the other phone stays available
+        appRoute.run(HttpRequest.PUT("/phones/batch")
+                        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"atomic\":true,\"operations\":[" +
+                                "{\"action\":\"book\",\"modelName\":\"Motorola Nexus 6\",\"bookedBy\":\"John Doe\"}," +
+                                "{\"action\":\"book\",\"modelName\":\"Nokia 3310\",\"bookedBy\":\"John Doe\"}]}"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+        assertTrue(appRoute.run(HttpRequest.GET("/phones/Motorola%20Nexus%206"))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString()
+                .contains("\"available\":true"));
+
+        appRoute.run(HttpRequest.PUT("/phones/batch")
+                        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"operations\":[]}"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+    }
+
+    @Test
+    public void testCase11_BookPhoneWithHold() {
+        appRoute.run(HttpRequest.PUT("/phones/book")
+                        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+                                "{\"modelName\":\"Nokia 3310\",\"bookedBy\":\"John Doe\",\"holdSeconds\":0}"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+        appRoute.run(HttpRequest.PUT("/phones/hold")
+                        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+                                "{\"modelName\":\"Nokia 3310\",\"bookedBy\":\"John Doe\",\"holdSeconds\":60}"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+
+        appRoute.run(HttpRequest.PUT("/phones/book")
+                        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+                                "{\"modelName\":\"Nokia 3310\",\"bookedBy\":\"John Doe\",\"holdSeconds\":3600}"))
+                .assertStatusCode(StatusCodes.OK);
+        assertTrue(appRoute.run(HttpRequest.GET("/phones/Nokia%203310"))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString()
+                .contains("\"holdUntil\""));
+        appRoute.run(HttpRequest.PUT("/phones/hold")
+                        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+                                "{\"modelName\":\"Nokia 3310\",\"bookedBy\":\"John Doe\",\"holdSeconds\":60}"))
+                .assertStatusCode(StatusCodes.OK);
+    }
+
+    @Test
+    public void testCase12_UserPhones() {
+        appRoute.run(HttpRequest.PUT("/phones/book")
+                        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+                                "{\"modelName\":\"Oneplus 9\",\"bookedBy\":\"Jane Roe\"}"))
+                .assertStatusCode(StatusCodes.OK);
+
+        String phones = appRoute.run(HttpRequest.GET("/users/Jane%20Roe/phones"))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString();
+        assertTrue(phones.contains("\"modelName\":\"Oneplus 9\""));
+        assertTrue(phones.contains("\"bookedBy\":\"Jane Roe\""));
+        appRoute.run(HttpRequest.GET("/users/Nobody/phones"))
+                .assertStatusCode(StatusCodes.OK)
+                .assertEntity("{\"data\":[],\"status\":\"success\"}");
+        appRoute.run(HttpRequest.GET("/users/Jane%20Roe/history?from=yesterday"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+    }
+
+    // a model with several units does not show its bookers, the query finds them through the inventory
+    @Test
+    public void testCase12a_QueryPhonesByBookerOfAUnit() {
+        ActorTestKit stocked = ActorTestKit.create(ConfigFactory.parseString("my-app.booking.units { \"2x Samsung Galaxy S8\" = 2 }")
+                .withFallback(system.settings().config()));
+        try {
+            PhoneInventoryView stockedView = new PhoneInventoryView(1);
+            ActorRef<Commands.Command> service = stocked.spawn(BookingService.create(
+                    system.settings().config().getStringList("my-app.phones"), stockedView, 0));
+            TestRoute route = testRoute(new BookingsRoute(stocked.system(), service, stockedView).routes());
+            route.run(HttpRequest.PUT("/phones/book")
+                            .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+                                    "{\"modelName\":\"2x Samsung Galaxy S8\",\"bookedBy\":\"Jane Roe\"}"))
+                    .assertStatusCode(StatusCodes.OK);
+
+            String phones = route.run(HttpRequest.GET("/phones?bookedBy=Jane%20Roe"))
+                    .assertStatusCode(StatusCodes.OK)
+                    .entityString();
+            assertTrue(phones.contains("\"modelName\":\"2x Samsung Galaxy S8\""));
+            assertTrue(phones.contains("\"availableUnits\":1"));
+            assertFalse(route.run(HttpRequest.GET("/phones?bookedBy=John%20Doe"))
+                    .assertStatusCode(StatusCodes.OK)
+                    .entityString()
+                    .contains("Samsung Galaxy S8"));
+        } finally {
+            stocked.shutdownTestKit();
+        }
+    }
+
+    @Test
+    public void testCase13_SearchPhones() {
+        String phones = appRoute.run(HttpRequest.GET("/phones/search?q=IPHONE%201"))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString();
+        assertTrue(phones.contains("\"modelName\":\"Apple iPhone 11\""));
+        assertTrue(phones.contains("\"modelName\":\"Apple iPhone 13\""));
+        assertFalse(phones.contains("iPhone X"));
+
+        appRoute.run(HttpRequest.GET("/phones/search?q=pixel"))
+                .assertStatusCode(StatusCodes.OK)
+                .assertEntity("{\"data\":[],\"status\":\"success\"}");
+        appRoute.run(HttpRequest.GET("/phones/search?q=%20"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+    }
+
+    @Test
+    public void testCase13a_ReadsBeyondTheAdmissionLimit() {
+        ActorTestKit limited = ActorTestKit.create(ConfigFactory.parseString("my-app.routes.admission.max-reads = 0")
+                .withFallback(system.settings().config()));
+        try {
+            TestRoute route = testRoute(new BookingsRoute(limited.system(), bookingServiceActor, view).routes());
+            route.run(HttpRequest.GET("/phones?available=true"))
+                    .assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE)
+                    .assertHeaderExists("Retry-After", "1")
+                    .assertEntity("{\"data\":\"Too many requests, please retry later.\",\"status\":\"overloaded\"}");
+            // a stream asks its pages under the same limit
+            route.run(HttpRequest.GET("/phones/stream"))
+                    .assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE)
+                    .assertHeaderExists("Retry-After", "1");
+        } finally {
+            limited.shutdownTestKit();
+        }
+    }
+
+    @Test
+    public void testCase14_BookPhoneWithIdempotencyKey() {
+        HttpRequest book = HttpRequest.PUT("/phones/book")
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+                        "{\"modelName\":\"iPhone X\",\"bookedBy\":\"John Doe\"}")
+                .addHeader(RawHeader.create("Idempotency-Key", "book-1"));
+        appRoute.run(book)
+                .assertStatusCode(StatusCodes.OK)
+                .assertEntity("{\"data\":\"Phone booked successfully.\",\"status\":\"success\"}");
+        // replayed, so not rejected as already booked
+        appRoute.run(book)
+                .assertStatusCode(StatusCodes.OK)
+                .assertEntity("{\"data\":\"Phone booked successfully.\",\"status\":\"success\"}");
+
+        appRoute.run(HttpRequest.PUT("/phones/book")
+                        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+                                "{\"modelName\":\"Nokia 3310\",\"bookedBy\":\"John Doe\"}")
+                        .addHeader(RawHeader.create("Idempotency-Key", "book-1")))
+                .assertStatusCode(StatusCodes.UNPROCESSABLE_ENTITY);
+    }
+
+    @Test
+    public void testCase15_CborBodies() throws Exception {
+        RawHeader acceptCbor = RawHeader.create("Accept", "application/cbor");
+        byte[] details = appRoute.run(HttpRequest.GET("/phones/Oneplus%209").addHeader(acceptCbor))
+                .assertStatusCode(StatusCodes.OK)
+                .assertContentType(Formats.CBOR_CONTENT_TYPE)
+                .entityBytes().toArray();
+        JsonNode phone = Formats.CBOR_MAPPER.readTree(details);
+        assertEquals("success", phone.get("status").asText());
+        assertEquals("Oneplus 9", phone.get("data").get("modelName").asText());
+
+        byte[] booking = Formats.CBOR_MAPPER.writeValueAsBytes(new Messages.BookingRequest("Oneplus 9", "John Doe", null));
+        byte[] booked = appRoute.run(HttpRequest.PUT("/phones/book")
+                        .withEntity(HttpEntities.create(Formats.CBOR_CONTENT_TYPE, booking))
+                        .addHeader(acceptCbor))
+                .assertStatusCode(StatusCodes.OK)
+                .assertContentType(Formats.CBOR_CONTENT_TYPE)
+                .entityBytes().toArray();
+        assertEquals("Phone booked successfully.", Formats.CBOR_MAPPER.readTree(booked).get("data").asText());
+
+        // JSON unless asked for
+        appRoute.run(HttpRequest.GET("/phones/Oneplus%209"))
+                .assertStatusCode(StatusCodes.OK)
+                .assertMediaType(MediaTypes.APPLICATION_JSON);
+    }
+
+}
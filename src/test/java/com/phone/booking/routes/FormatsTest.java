@@ -0,0 +1,26 @@
+package com.phone.booking.routes;
+
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FormatsTest {
+
+    @Test
+    public void testCborOnlyWhenPreferred() {
+        assertFalse(Formats.prefersCbor(Optional.empty()));
+        assertFalse(Formats.prefersCbor(Optional.of("*/*")));
+        assertFalse(Formats.prefersCbor(Optional.of("application/json, application/cbor")));
+        assertFalse(Formats.prefersCbor(Optional.of("application/cbor;q=0.5, application/json")));
+        assertFalse(Formats.prefersCbor(Optional.of("application/cbor;q=0, */*")));
+        // equally acceptable, as for the marshaller JSON wins the tie
+        assertFalse(Formats.prefersCbor(Optional.of("application/cbor, */*")));
+
+        assertTrue(Formats.prefersCbor(Optional.of("application/cbor")));
+        assertTrue(Formats.prefersCbor(Optional.of("application/cbor, */*;q=0.8")));
+        assertTrue(Formats.prefersCbor(Optional.of("application/json;q=0.5, Application/CBOR")));
+    }
+}
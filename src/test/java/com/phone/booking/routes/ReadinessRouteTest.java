@@ -0,0 +1,42 @@
+package com.phone.booking.routes;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.testkit.JUnitRouteTest;
+import akka.http.javadsl.testkit.TestRoute;
+import com.phone.booking.service.BookingService;
+import com.phone.booking.store.PhoneInventoryView;
+import org.junit.After;
+import org.junit.Test;
+
+public class ReadinessRouteTest extends JUnitRouteTest {
+
+    private ActorTestKit testKit;
+
+    @After
+    public void tearDown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void testReadyOnceEnrichmentIsDone() {
+        ActorSystem<Void> system = Adapter.toTyped(system());
+        testKit = ActorTestKit.create(system);
+        PhoneInventoryView view = new PhoneInventoryView(1);
+        TestRoute route = testRoute(new ReadinessRoute(view).routes());
+
+        route.run(HttpRequest.GET("/ready"))
+                .assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE)
+                .assertEntity("{\"enriched\":0,\"ready\":false,\"toEnrich\":0}");
+
+        testKit.spawn(BookingService.create(system.settings().config().getStringList("my-app.phones"), view, 0));
+        TestProbe<Void> probe = TestProbe.create(system);
+        probe.awaitAssert(() -> route.run(HttpRequest.GET("/ready"))
+                .assertStatusCode(StatusCodes.OK)
+                .assertEntity("{\"enriched\":9,\"ready\":true,\"toEnrich\":9}"));
+    }
+}
@@ -0,0 +1,27 @@
+package com.phone.booking.routes;
+
+import com.phone.booking.metrics.Metrics;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RouteMetricsTest {
+
+    @Test
+    public void testResponsesAreCountedByStatusCode() {
+        Metrics metrics = new Metrics();
+        RouteMetrics route = new RouteMetrics(metrics, "book");
+        long start = System.nanoTime();
+        route.record(start, 200);
+        route.record(start, 200);
+        route.record(start, 503);
+
+        // the same series the registry hands out for the labels
+        assertEquals(2, metrics.counter("http_requests_total", "Requests by route and status code",
+                "route", "book", "status", "200").sum());
+        assertEquals(1, metrics.counter("http_requests_total", "Requests by route and status code",
+                "route", "book", "status", "503").sum());
+        assertTrue(metrics.render().contains("http_request_duration_seconds"));
+    }
+}
@@ -0,0 +1,105 @@
+package com.phone.booking.service;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import com.phone.booking.messages.Commands;
+import com.phone.booking.messages.Messages;
+import com.phone.booking.models.Phone;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static com.phone.booking.Status.error;
+import static com.phone.booking.Status.notFound;
+import static com.phone.booking.Status.success;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BookingShardRouterTest {
+
+    private static final ActorTestKit testKit = ActorTestKit.create();
+    private static final List<String> phones = testKit.system().settings().config().getStringList("my-app.phones");
+
+    @AfterClass
+    public static void tearDown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void testModelCommandsReachOwningShard() {
+        ActorRef<Commands.Command> router = testKit.spawn(BookingShardRouter.create(phones, 3));
+        TestProbe<Messages.BookingResponse<?>> probe = testKit.createTestProbe();
+
+        router.tell(new Commands.BookPhone("Oneplus 9", "Jane Doe", probe.getRef()));
+        assertEquals(success, probe.receiveMessage().status());
+
+        router.tell(new Commands.GetPhoneDetails("Oneplus 9", probe.getRef()));
+        Phone phone = (Phone) probe.receiveMessage().data();
+        assertFalse(phone.isAvailable());
+        assertEquals("Jane Doe", phone.getBookedBy());
+    }
+
+    @Test
+    public void testGetAllPhonesGathersEveryShard() {
+        ActorRef<Commands.Command> router = testKit.spawn(BookingShardRouter.create(phones, 4));
+        TestProbe<Messages.BookingResponse<?>> probe = testKit.createTestProbe();
+
+        router.tell(new Commands.GetAllPhones(probe.getRef()));
+        Messages.BookingResponse<?> response = probe.receiveMessage();
+        assertEquals(success, response.status());
+        assertEquals(phones.size(), ((List<?>) response.data()).size());
+    }
+
+    // the test configuration disables the history, so every shard answers notFound
+    @Test
+    public void testRejectionOfEveryShardIsPassedThrough() {
+        ActorRef<Commands.Command> router = testKit.spawn(BookingShardRouter.create(phones, 3));
+        TestProbe<Messages.BookingResponse<?>> probe = testKit.createTestProbe();
+
+        router.tell(new Commands.GetUserHistory("Jane Doe", 0, System.currentTimeMillis(), probe.getRef()));
+        Messages.BookingResponse<?> response = probe.receiveMessage();
+        assertEquals(notFound, response.status());
+        assertEquals("The booking history is disabled.", response.data());
+    }
+
+    @Test
+    public void testBatchKeepsResultsOfShardsThatAnswered() {
+        String owned = phones.stream().map(String::trim).filter(model -> BookingShardRouter.shardOf(model, 2) == 0).findFirst().orElseThrow();
+        String lost = phones.stream().map(String::trim).filter(model -> BookingShardRouter.shardOf(model, 2) == 1).findFirst().orElseThrow();
+        // the second shard never answers
+        TestProbe<Commands.Command> silentShard = testKit.createTestProbe();
+        ActorRef<Commands.Command> router = testKit.spawn(BookingShardRouter.createOver(List.of(
+                testKit.spawn(BookingService.create(List.of(owned))), silentShard.getRef())));
+        TestProbe<Messages.BookingResponse<?>> probe = testKit.createTestProbe();
+
+        router.tell(new Commands.BatchBooking(List.of(
+                new Messages.BatchOperation(Messages.BatchOperation.BOOK, lost, "Jane Doe"),
+                new Messages.BatchOperation(Messages.BatchOperation.BOOK, owned, "Jane Doe")), false, probe.getRef()));
+        silentShard.expectMessageClass(Commands.BatchBooking.class);
+        Messages.BookingResponse<?> response = probe.receiveMessage(Duration.ofSeconds(10));
+        assertEquals(success, response.status());
+        List<?> results = (List<?>) response.data();
+        assertEquals(error, ((Messages.BatchItemResult) results.get(0)).status());
+        assertEquals(success, ((Messages.BatchItemResult) results.get(1)).status());
+    }
+
+    @Test
+    public void testBatchOnlyAsksShardsItInvolves() {
+        String first = phones.stream().map(String::trim).filter(model -> BookingShardRouter.shardOf(model, 3) == 0).findFirst().orElseThrow();
+        String second = phones.stream().map(String::trim).filter(model -> BookingShardRouter.shardOf(model, 3) == 1).findFirst().orElseThrow();
+        TestProbe<Commands.Command> uninvolved = testKit.createTestProbe();
+        ActorRef<Commands.Command> router = testKit.spawn(BookingShardRouter.createOver(List.of(
+                testKit.spawn(BookingService.create(List.of(first))), testKit.spawn(BookingService.create(List.of(second))),
+                uninvolved.getRef())));
+        TestProbe<Messages.BookingResponse<?>> probe = testKit.createTestProbe();
+
+        router.tell(new Commands.BatchBooking(List.of(
+                new Messages.BatchOperation(Messages.BatchOperation.BOOK, first, "Jane Doe"),
+                new Messages.BatchOperation(Messages.BatchOperation.BOOK, second, "Jane Doe")), false, probe.getRef()));
+        assertEquals(success, probe.receiveMessage().status());
+        uninvolved.expectNoMessage();
+    }
+}
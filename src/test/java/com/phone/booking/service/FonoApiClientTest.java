@@ -0,0 +1,154 @@
+package com.phone.booking.service;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.ServerBinding;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.Unmarshaller;
+import com.typesafe.config.Config;
+import com.phone.booking.models.Phone;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FonoApiClientTest {
+
+    private static final ActorTestKit testKit = ActorTestKit.create();
+    private static final AtomicInteger calls = new AtomicInteger();
+    private static final AtomicInteger failuresLeft = new AtomicInteger();
+    private static ServerBinding binding;
+
+    // local stand-in for fonoapi: knows a single device, rejects and garbles two others and fails while failuresLeft is positive
+    static class StubApi extends AllDirectives {
+        Route route() {
+            return post(() -> entity(Unmarshaller.entityToString(), body -> {
+                calls.incrementAndGet();
+                if (failuresLeft.getAndDecrement() > 0)
+                    return complete(StatusCodes.SERVICE_UNAVAILABLE);
+                if (body.contains("Rejected Phone"))
+                    return complete(StatusCodes.UNAUTHORIZED);
+                if (body.contains("Garbled Phone"))
+                    return complete(HttpResponse.create().withEntity(ContentTypes.APPLICATION_JSON, "[{\"model\":"));
+                if (body.contains("Nokia 3310"))
+                    return complete(HttpResponse.create().withEntity(ContentTypes.APPLICATION_JSON,
+                            "[{\"DeviceName\":\"Nokia 3310\",\"model\":\"Nokia 3310\",\"technology\":\"GSM\",\"_2g_bands\":\"GSM 900\"}]"));
+                return complete(StatusCodes.NOT_FOUND);
+            }));
+        }
+    }
+
+    @BeforeClass
+    public static void startStub() throws Exception {
+        binding = Http.get(testKit.system()).newServerAt("127.0.0.1", 0).bind(new StubApi().route())
+                .toCompletableFuture().get(5, SECONDS);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        binding.unbind();
+        testKit.shutdownTestKit();
+    }
+
+    private FonoApiClient newClient() {
+        Config settings = ConfigFactory.parseString(
+                        "api = \"http://127.0.0.1:" + binding.localAddress().getPort() + "/getdevice\"\n" +
+                        "client.retry.min-backoff = 10ms")
+                .withFallback(testKit.system().settings().config().getConfig("my-app.fonoapi"));
+        return new FonoApiClient(testKit.system(), settings);
+    }
+
+    @Test
+    public void testLookupRetriesFailuresAndCachesResult() throws Exception {
+        FonoApiClient client = newClient();
+        calls.set(0);
+        failuresLeft.set(2);
+
+        Optional<FetchPhoneExternalDetailsService.PhoneDetails> details =
+                client.lookup("Nokia 3310").toCompletableFuture().get(5, SECONDS);
+        assertEquals("GSM", details.orElseThrow().technology());
+        assertEquals(3, calls.get());
+
+        assertEquals("GSM 900", client.lookup("Nokia 3310").toCompletableFuture().get(5, SECONDS).orElseThrow()._2g_bands());
+        assertEquals(3, calls.get());
+    }
+
+    // the lookups of a batch run on stream threads, through the client of a system configured for the api
+    @Test
+    public void testBatchIsEnrichedThroughTheApi() {
+        ActorTestKit apiKit = ActorTestKit.create(ConfigFactory.parseString(
+                        "my-app.fonoapi.available = true\n" +
+                        "my-app.fonoapi.api = \"http://127.0.0.1:" + binding.localAddress().getPort() + "/getdevice\"\n" +
+                        "my-app.fonoapi.client.retry.min-backoff = 10ms")
+                .withFallback(testKit.system().settings().config()));
+        try {
+            failuresLeft.set(0);
+            TestProbe<List<Phone>> probe = apiKit.createTestProbe();
+            apiKit.spawn(FetchPhoneExternalDetailsService.create()).tell(new FetchPhoneExternalDetailsService.GetExternalDetailsBatch(
+                    List.of(Phone.builder().modelName("Nokia 3310").available(true).build(),
+                            Phone.builder().modelName("Unknown Phone").available(true).build()),
+                    probe.getRef()));
+
+            List<Phone> phones = probe.receiveMessage(Duration.ofSeconds(10));
+            assertEquals("GSM", phones.get(0).getTechnology());
+            assertEquals("GSM 900", phones.get(0).get_2g_bands());
+            assertEquals("Unknown Phone", phones.get(1).getModelName());
+            assertNull(phones.get(1).getTechnology());
+        } finally {
+            apiKit.shutdownTestKit();
+        }
+    }
+
+    @Test
+    public void testUnknownModelHasNoDetails() throws Exception {
+        FonoApiClient client = newClient();
+        calls.set(0);
+        failuresLeft.set(0);
+
+        assertTrue(client.lookup("Unknown Phone").toCompletableFuture().get(5, SECONDS).isEmpty());
+        // the miss is cached too
+        assertTrue(client.lookup("Unknown Phone").toCompletableFuture().get(5, SECONDS).isEmpty());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testRejectedAndUnreadableLookupsFailAtOnce() throws Exception {
+        FonoApiClient client = newClient();
+        calls.set(0);
+        failuresLeft.set(0);
+
+        // more than circuit-breaker.max-failures, none of them may open the breaker
+        for (int i = 0; i < 6; i++) {
+            assertFailsWith(client, "Rejected Phone", "401");
+            assertFailsWith(client, "Garbled Phone", "Unreadable");
+        }
+        assertEquals(12, calls.get());
+        assertEquals("GSM", client.lookup("Nokia 3310").toCompletableFuture().get(5, SECONDS).orElseThrow().technology());
+    }
+
+    private static void assertFailsWith(FonoApiClient client, String model, String message) throws Exception {
+        try {
+            client.lookup(model).toCompletableFuture().get(5, SECONDS);
+            fail("lookup of " + model + " should fail");
+        } catch (ExecutionException exception) {
+            assertTrue(exception.getCause().getMessage(), exception.getCause().getMessage().contains(message));
+        }
+    }
+}
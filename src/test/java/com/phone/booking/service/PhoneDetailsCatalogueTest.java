@@ -0,0 +1,53 @@
+package com.phone.booking.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.Assert.*;
+
+public class PhoneDetailsCatalogueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Test
+    public void testFindsDeviceByModel() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("phoneDetails.json");
+        Files.writeString(file, "[{\"model\":\"Nokia 3310\",\"technology\":\"GSM\",\"brand\":\"Nokia\"}," +
+                "{\"model\":\"Oneplus 9\",\"technology\":\"LTE\"}]");
+        PhoneDetailsCatalogue catalogue = new PhoneDetailsCatalogue(file, mapper, Duration.ZERO);
+
+        assertEquals("GSM", catalogue.find("Nokia 3310").orElseThrow().technology());
+        assertEquals("LTE", catalogue.find("Oneplus 9").orElseThrow().technology());
+        assertTrue(catalogue.find("Nokia").isEmpty());
+    }
+
+    @Test
+    public void testReloadsChangedFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("phoneDetails.json");
+        Files.writeString(file, "[{\"model\":\"Nokia 3310\",\"technology\":\"GSM\"},{\"model\":\"Oneplus 9\"}]");
+        PhoneDetailsCatalogue catalogue = new PhoneDetailsCatalogue(file, mapper, Duration.ZERO);
+        assertEquals("GSM", catalogue.find("Nokia 3310").orElseThrow().technology());
+        assertEquals(2, catalogue.size());
+
+        Files.writeString(file, "[{\"model\":\"Nokia 3310\",\"technology\":\"GSM LTE\"}]");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(60)));
+
+        assertEquals("GSM LTE", catalogue.find("Nokia 3310").orElseThrow().technology());
+        assertTrue(catalogue.find("Oneplus 9").isEmpty());
+        assertEquals(1, catalogue.size());
+    }
+}
@@ -0,0 +1,133 @@
+package com.phone.booking.store;
+
+import com.phone.booking.models.Phone;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceInventoryTest {
+
+    @Test
+    public void testSingleUnitModelCarriesItsBooking() {
+        DeviceInventory inventory = new DeviceInventory();
+        inventory.addModel("Nokia 3310", 1);
+        int model = inventory.modelId("Nokia 3310");
+
+        assertTrue(inventory.book(model, "John Doe", 0) >= 0);
+        assertEquals(-1, inventory.book(model, "Jane Doe", 0));
+        Phone phone = inventory.toPhone(model);
+        assertFalse(phone.isAvailable());
+        assertEquals("John Doe", phone.getBookedBy());
+        assertEquals(DeviceInventory.formatDate(0), phone.getBookingDate());
+        assertNull(phone.getUnits());
+
+        assertTrue(inventory.giveBack(model) >= 0);
+        assertEquals(-1, inventory.giveBack(model));
+        assertTrue(inventory.toPhone(model).isAvailable());
+        assertNull(inventory.toPhone(model).getBookedBy());
+    }
+
+    @Test
+    public void testModelWithSeveralUnits() {
+        DeviceInventory inventory = new DeviceInventory();
+        inventory.addModel("Apple iPhone 13", 1);
+        inventory.addModel("Samsung Galaxy S8", 2);
+        int model = inventory.modelId("Samsung Galaxy S8");
+        assertEquals(-1, inventory.modelId("Unknown"));
+        assertEquals(3, inventory.deviceCount());
+
+        int first = inventory.book(model, "John Doe", 1_000);
+        int second = inventory.book(model, "Jane Doe", 2_000);
+        assertTrue(first != second);
+        assertEquals(-1, inventory.book(model, "John Doe", 3_000));
+        assertEquals(0, (int) inventory.toPhone(model).getAvailableUnits());
+        assertTrue(inventory.toPhone(inventory.modelId("Apple iPhone 13")).isAvailable());
+
+        inventory.giveBack(model);
+        Phone phone = inventory.toPhone(model);
+        assertTrue(phone.isAvailable());
+        assertEquals(2, (int) phone.getUnits());
+        assertEquals(1, (int) phone.getAvailableUnits());
+
+        List<Phone> states = inventory.unitStates();
+        assertEquals(2, states.size());
+        assertTrue(states.stream().anyMatch(state -> !state.isAvailable() && "Jane Doe".equals(state.getBookedBy())));
+    }
+
+    @Test
+    public void testGrowsBeyondInitialCapacity() {
+        DeviceInventory inventory = new DeviceInventory();
+        for (int i = 0; i < 1000; i++)
+            inventory.addModel("Phone " + i, 1 + i % 3);
+        assertEquals(1000, inventory.modelCount());
+        assertEquals(1999, inventory.deviceCount());
+
+        int model = inventory.modelId("Phone 998");
+        for (int i = 0; i < 3; i++)
+            assertTrue(inventory.book(model, "User " + i, i) >= 0);
+        assertEquals(-1, inventory.book(model, "User", 0));
+        assertEquals(1000, inventory.phones().size());
+    }
+
+    @Test
+    public void testDevicesOfUser() {
+        DeviceInventory inventory = new DeviceInventory();
+        inventory.addModel("Nokia 3310", 1);
+        inventory.addModel("Samsung Galaxy S8", 3);
+        int galaxy = inventory.modelId("Samsung Galaxy S8");
+
+        int nokia = inventory.book(inventory.modelId("Nokia 3310"), "John Doe", 0);
+        inventory.book(galaxy, "Jane Doe", 0);
+        int second = inventory.book(galaxy, "John Doe", 0);
+        assertArrayEquals(new int[]{nokia, second}, inventory.devicesOf("John Doe"));
+
+        inventory.release(nokia);
+        assertArrayEquals(new int[]{second}, inventory.devicesOf("John Doe"));
+        assertEquals("Samsung Galaxy S8", inventory.unitState(second).getModelName());
+        assertEquals("John Doe", inventory.unitState(second).getBookedBy());
+        assertEquals(0, inventory.devicesOf("Nobody").length);
+    }
+
+    @Test
+    public void testDevicesOfUserAfterReleasesAnywhereInTheList() {
+        DeviceInventory inventory = new DeviceInventory();
+        inventory.addModel("Samsung Galaxy S8", 4);
+        int galaxy = inventory.modelId("Samsung Galaxy S8");
+        int[] devices = new int[4];
+        for (int i = 0; i < devices.length; i++)
+            devices[i] = inventory.book(galaxy, "John Doe", i);
+
+        inventory.release(devices[2]);
+        inventory.release(devices[0]);
+        assertArrayEquals(new int[]{devices[1], devices[3]}, inventory.devicesOf("John Doe"));
+        inventory.release(devices[3]);
+        inventory.release(devices[1]);
+        assertEquals(0, inventory.devicesOf("John Doe").length);
+
+        // the device is linked again for its next booker
+        assertEquals(devices[0], inventory.book(galaxy, "Jane Doe", 0));
+        assertArrayEquals(new int[]{devices[0]}, inventory.devicesOf("Jane Doe"));
+    }
+
+    @Test
+    public void testUnitStatesKeepInstants() {
+        DeviceInventory inventory = new DeviceInventory();
+        inventory.addModel("Nokia 3310", 1);
+        int model = inventory.modelId("Nokia 3310");
+        int device = inventory.book(model, "John Doe", 1_000);
+        inventory.hold(device, 61_000);
+
+        Phone state = inventory.unitStates().get(0);
+        assertEquals("1970-01-01T00:00:01Z", state.getBookingDate());
+        assertEquals(61_000, DeviceInventory.parseInstant(state.getHoldUntil()));
+        // the API shows local date times, which journals written before kept as well
+        assertEquals(DeviceInventory.formatDate(1_000), inventory.unitState(device).getBookingDate());
+        assertEquals(1_000, DeviceInventory.parseInstant(DeviceInventory.formatDate(1_000)));
+    }
+}
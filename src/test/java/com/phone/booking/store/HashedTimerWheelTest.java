@@ -0,0 +1,63 @@
+package com.phone.booking.store;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedTimerWheelTest {
+
+    @Test
+    public void testExpiresDueIdsOnly() {
+        HashedTimerWheel wheel = new HashedTimerWheel(8, 100, 4, 0);
+        wheel.schedule(1, 250);
+        wheel.schedule(2, 1_000);
+        wheel.schedule(3, 50);
+        List<Integer> expired = new ArrayList<>();
+
+        wheel.advance(300, expired::add);
+        assertEquals(List.of(3, 1), expired);
+        assertEquals(1, wheel.size());
+
+        // id 2 is more than one revolution ahead and shares a slot that was already visited
+        wheel.advance(999, expired::add);
+        assertEquals(List.of(3, 1), expired);
+        wheel.advance(1_000, expired::add);
+        assertEquals(List.of(3, 1, 2), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testRescheduleAndCancel() {
+        HashedTimerWheel wheel = new HashedTimerWheel(8, 100, 16, 0);
+        wheel.schedule(1, 200);
+        wheel.schedule(2, 200);
+        wheel.schedule(1, 500);
+        wheel.cancel(2);
+        assertTrue(wheel.isScheduled(1));
+        assertFalse(wheel.isScheduled(2));
+        List<Integer> expired = new ArrayList<>();
+
+        wheel.advance(400, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(500, expired::add);
+        assertEquals(List.of(1), expired);
+        assertFalse(wheel.isScheduled(1));
+    }
+
+    @Test
+    public void testLongPauseStillExpiresEverything() {
+        HashedTimerWheel wheel = new HashedTimerWheel(64, 10, 8, 0);
+        for (int id = 0; id < 64; id++)
+            wheel.schedule(id, id * 10L);
+        List<Integer> expired = new ArrayList<>();
+
+        wheel.advance(1_000_000, expired::add);
+        assertEquals(64, expired.size());
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,45 @@
+package com.phone.booking.store;
+
+import com.phone.booking.messages.Messages;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class IdempotencyCacheTest {
+
+    @Test
+    public void testKeyIsReservedUntilRemovedOrEvicted() {
+        IdempotencyCache<Messages.BookingResponse<?>> cache = new IdempotencyCache<>(2, Duration.ofMinutes(10));
+        CompletableFuture<Messages.BookingResponse<?>> first = new CompletableFuture<>();
+        assertNull(cache.putIfAbsent("a", "book", first));
+        IdempotencyCache.Cached<Messages.BookingResponse<?>> cached = cache.putIfAbsent("a", "book", new CompletableFuture<>());
+        assertNotNull(cached);
+        assertSame(first, cached.response());
+
+        // only the response that reserved the key frees it
+        cache.remove("a", new CompletableFuture<>());
+        assertEquals(1, cache.size());
+        cache.remove("a", first);
+        assertNull(cache.putIfAbsent("a", "book", first));
+
+        // the oldest key makes room
+        assertNull(cache.putIfAbsent("b", "book", new CompletableFuture<>()));
+        assertNull(cache.putIfAbsent("c", "book", new CompletableFuture<>()));
+        assertEquals(2, cache.size());
+        assertNull(cache.putIfAbsent("a", "book", new CompletableFuture<>()));
+    }
+
+    @Test
+    public void testKeysExpire() {
+        IdempotencyCache<Messages.BookingResponse<?>> cache = new IdempotencyCache<>(10, Duration.ZERO);
+        assertNull(cache.putIfAbsent("a", "book", new CompletableFuture<>()));
+        assertNull(cache.putIfAbsent("a", "book", new CompletableFuture<>()));
+        assertEquals(1, cache.size());
+    }
+}
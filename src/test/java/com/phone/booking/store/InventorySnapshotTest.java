@@ -0,0 +1,40 @@
+package com.phone.booking.store;
+
+import com.phone.booking.models.Phone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InventorySnapshotTest {
+
+    @Test
+    public void testWithLeavesThePreviousVersionUnchanged() {
+        List<Phone> phones = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+            phones.add(Phone.builder().modelName("Phone " + i).available(true).build());
+        InventorySnapshot first = InventorySnapshot.of(1, phones);
+
+        InventorySnapshot second = first.with(Phone.builder().modelName("Phone 1500").available(false).bookedBy("Jane Doe").build());
+        assertEquals(2, second.version());
+        assertTrue(first.phones().get("Phone 1500").isAvailable());
+        assertFalse(second.phones().get("Phone 1500").isAvailable());
+        assertEquals("Jane Doe", second.phones().get("Phone 1500").getBookedBy());
+        assertTrue(second.phones().get("Phone 1499").isAvailable());
+        assertEquals(2000, second.phones().size());
+        assertEquals("Phone 0", second.phones().values().iterator().next().getModelName());
+    }
+
+    @Test
+    public void testWithAddsNewModels() {
+        InventorySnapshot snapshot = InventorySnapshot.of(1, List.of(Phone.builder().modelName("Nokia 3310").available(true).build()))
+                .with(Phone.builder().modelName("Oneplus 9").available(true).build());
+        assertEquals(2, snapshot.phones().size());
+        assertTrue(snapshot.phones().containsKey("Oneplus 9"));
+        assertTrue(snapshot.phones().containsKey("Nokia 3310"));
+    }
+}
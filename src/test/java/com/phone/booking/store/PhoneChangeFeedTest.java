@@ -0,0 +1,71 @@
+package com.phone.booking.store;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.stream.javadsl.Sink;
+import com.phone.booking.models.Phone;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class PhoneChangeFeedTest {
+
+    private static final ActorTestKit testKit = ActorTestKit.create();
+
+    @AfterClass
+    public static void tearDown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void testResumeAfterLastSeenChange() throws Exception {
+        PhoneChangeFeed feed = new PhoneChangeFeed(testKit.system(), 16, 4, Duration.ofMillis(50));
+        feed.publish(phone("Nokia 3310", true));
+        feed.publish(phone("Oneplus 9", true));
+        feed.publish(phone("Nokia 3310", false));
+
+        assertEquals(List.of(2L, 3L), seqNrs(feed, 1, 2));
+        // without a last seen change every phone is sent once, with its latest change
+        assertEquals(List.of(2L, 3L), seqNrs(feed, -1, 2));
+
+        for (int i = 0; i < 4; i++)
+            feed.publish(phone("Oneplus 9", i % 2 == 0));
+        // the changes after 1 are no longer retained
+        assertEquals(List.of(3L, 7L), seqNrs(feed, 1, 2));
+    }
+
+    @Test
+    public void testLiveChanges() throws Exception {
+        PhoneChangeFeed feed = new PhoneChangeFeed(testKit.system(), 16, 4, Duration.ofMillis(50));
+        feed.publish(phone("Nokia 3310", true));
+        CompletionStage<List<PhoneChangeFeed.Change>> changes = feed.changesAfter(feed.seqNr())
+                .take(2)
+                .runWith(Sink.seq(), testKit.system());
+
+        feed.publish(phone("Nokia 3310", false));
+        feed.publish(phone("Oneplus 9", false));
+        assertEquals(List.of(2L, 3L), changes.toCompletableFuture().get(3, TimeUnit.SECONDS).stream()
+                .map(PhoneChangeFeed.Change::seqNr)
+                .toList());
+    }
+
+    private static List<Long> seqNrs(PhoneChangeFeed feed, long afterSeqNr, int count) throws Exception {
+        return feed.changesAfter(afterSeqNr)
+                .take(count)
+                .runWith(Sink.seq(), testKit.system())
+                .toCompletableFuture()
+                .get(3, TimeUnit.SECONDS)
+                .stream()
+                .map(PhoneChangeFeed.Change::seqNr)
+                .toList();
+    }
+
+    private static Phone phone(String modelName, boolean available) {
+        return Phone.builder().modelName(modelName).available(available).build();
+    }
+}
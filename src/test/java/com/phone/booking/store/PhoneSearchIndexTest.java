@@ -0,0 +1,47 @@
+package com.phone.booking.store;
+
+import com.phone.booking.models.Phone;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PhoneSearchIndexTest {
+
+    private final PhoneSearchIndex index = PhoneSearchIndex.of(List.of(
+            phone("Apple iPhone 13", "GSM / CDMA / HSPA / EVDO / LTE / 5G"),
+            phone("Apple iPhone 12", null),
+            phone("Samsung Galaxy S9", "GSM / HSPA / LTE"),
+            phone("Samsung Galaxy S8", null),
+            phone("Motorola Nexus 6", "GSM / CDMA / HSPA / LTE"),
+            phone("Nokia 3310", "GSM")));
+
+    @Test
+    public void testCaseInsensitiveSubstring() {
+        assertEquals(List.of("Samsung Galaxy S8", "Samsung Galaxy S9"), index.search("galaxy", 10));
+        assertEquals(List.of("Apple iPhone 12", "Apple iPhone 13"), index.search("IPHONE 1", 10));
+        assertEquals(List.of("Motorola Nexus 6"), index.search(" nexus ", 10));
+        assertEquals(List.of("Samsung Galaxy S8"), index.search("laxy s8", 10));
+        assertEquals(List.of(), index.search("pixel", 10));
+    }
+
+    @Test
+    public void testShortQueriesMatchWordPrefixes() {
+        assertEquals(List.of("Samsung Galaxy S8", "Samsung Galaxy S9"), index.search("s", 10));
+        assertEquals(List.of("Apple iPhone 12", "Apple iPhone 13"), index.search("ip", 10));
+        assertEquals(List.of("Apple iPhone 13"), index.search("5g", 10));
+    }
+
+    @Test
+    public void testTechnologyAndLimit() {
+        assertEquals(List.of("Apple iPhone 13", "Motorola Nexus 6", "Samsung Galaxy S9"), index.search("lte", 10));
+        assertEquals(List.of("Apple iPhone 13", "Motorola Nexus 6"), index.search("lte", 2));
+        // fields are searched one at a time
+        assertEquals(List.of(), index.search("3310 gsm", 10));
+    }
+
+    private static Phone phone(String modelName, String technology) {
+        return Phone.builder().modelName(modelName).available(true).technology(technology).build();
+    }
+}